@@ -45,6 +45,7 @@ public final class Debugging {
     APPEND_FAIL("append failed"),
     CANNOT_BE_NULL("cannot be null"),
     CANNOT_BE_NULL_OR_EMPTY("cannot be null or empty"),
+    CANNOT_BE_NEGATIVE("cannot be negative"),
     VALUE_NOT_SET_FOR_KEY("value not set for key")
     ;
 
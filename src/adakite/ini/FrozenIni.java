@@ -0,0 +1,239 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.ini;
+
+import adakite.debugging.Debugging;
+import adakite.settings.Settings;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable, read-optimized snapshot of an {@link Ini} created by
+ * {@link Ini#freeze()}. All variables are stored in a single open-addressing
+ * hash table keyed by the case-folded section name and key, so a lookup is
+ * one probe sequence which neither trims nor allocates.
+ *
+ * <p>Section names and keys are compared case-insensitively. Instances are
+ * thread-safe.</p>
+ */
+public final class FrozenIni {
+
+  private final String[] names;
+  private final String[] keys;
+  private final String[] values;
+  private final int[] hashes;
+  private final int mask;
+  /* Case-folded section names mapped to the table slots of their variables. */
+  private final HashMap<String, int[]> sectionSlots;
+
+  /**
+   * Compiles the specified sections.
+   *
+   * @param sections section names mapped to their settings
+   */
+  FrozenIni(Map<String, Settings> sections) {
+    int count = 0;
+    HashMap<String, Integer> sectionSizes = new HashMap<>();
+    for (Map.Entry<String, Settings> entry : sections.entrySet()) {
+      int size = 0;
+      Enumeration<String> enums = entry.getValue().getKeys();
+      while (enums.hasMoreElements()) {
+        enums.nextElement();
+        size++;
+      }
+      sectionSizes.merge(fold(entry.getKey()), size, Integer::sum);
+      count += size;
+    }
+
+    /* Keep the load factor at or below one half. */
+    int capacity = 2;
+    while (capacity < count * 2) {
+      capacity <<= 1;
+    }
+    this.names = new String[capacity];
+    this.keys = new String[capacity];
+    this.values = new String[capacity];
+    this.hashes = new int[capacity];
+    this.mask = capacity - 1;
+    this.sectionSlots = new HashMap<>();
+
+    HashMap<String, Integer> sectionFill = new HashMap<>();
+    for (Map.Entry<String, Settings> entry : sections.entrySet()) {
+      String name = fold(entry.getKey());
+      int[] slots = this.sectionSlots.computeIfAbsent(name, k -> new int[sectionSizes.get(k)]);
+      int fill = sectionFill.getOrDefault(name, 0);
+      Settings settings = entry.getValue();
+      Enumeration<String> enums = settings.getKeys();
+      while (enums.hasMoreElements()) {
+        String key = enums.nextElement();
+        String value = settings.getValue(key);
+        if (value == null) {
+          /* Key was removed while compiling. */
+          continue;
+        }
+        int slot = put(name, key, value);
+        if (slot >= 0) {
+          slots[fill++] = slot;
+        }
+      }
+      sectionFill.put(name, fill);
+    }
+    for (Map.Entry<String, int[]> entry : this.sectionSlots.entrySet()) {
+      int fill = sectionFill.get(entry.getKey());
+      if (fill < entry.getValue().length) {
+        int[] slots = new int[fill];
+        System.arraycopy(entry.getValue(), 0, slots, 0, fill);
+        entry.setValue(slots);
+      }
+    }
+  }
+
+  public String getValue(String name, String key) {
+    if (key == null || key.length() < 1) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL_OR_EMPTY.toString("key"));
+    }
+    if (isBlank(name)) {
+      name = Ini.DEFAULT_NULL_SECTION_NAME;
+    }
+    int hash = hash(name, key);
+    for (int i = hash & this.mask; this.keys[i] != null; i = (i + 1) & this.mask) {
+      if (this.hashes[i] == hash
+          && this.names[i].equalsIgnoreCase(name)
+          && this.keys[i].equalsIgnoreCase(key)) {
+        return this.values[i];
+      }
+    }
+    return null;
+  }
+
+  public boolean hasValue(String name, String key) {
+    return !isBlank(getValue(name, key));
+  }
+
+  public boolean isEnabled(String name, String key) {
+    return Boolean.TRUE.toString().equalsIgnoreCase(getValue(name, key));
+  }
+
+  /**
+   * Returns a new Settings object containing the variables of the
+   * specified section.
+   *
+   * @param sectionName name of the specified section
+   * @return
+   *     the settings of the specified section if it exists,
+   *     otherwise null
+   */
+  public Settings getSectionSettings(String sectionName) {
+    if (isBlank(sectionName)) {
+      sectionName = Ini.DEFAULT_NULL_SECTION_NAME;
+    }
+    int[] slots = this.sectionSlots.get(fold(sectionName));
+    if (slots == null) {
+      return null;
+    }
+    Settings settings = new Settings();
+    for (int slot : slots) {
+      settings.set(this.keys[slot], this.values[slot]);
+    }
+    return settings;
+  }
+
+  /**
+   * Adds a variable to the table.
+   *
+   * @return
+   *     the slot of the new variable,
+   *     otherwise -1 if a variable with the same case-folded key already
+   *     existed and its value was replaced
+   */
+  private int put(String name, String key, String value) {
+    int hash = hash(name, key);
+    int i = hash & this.mask;
+    while (this.keys[i] != null) {
+      if (this.hashes[i] == hash
+          && this.names[i].equalsIgnoreCase(name)
+          && this.keys[i].equalsIgnoreCase(key)) {
+        this.values[i] = value;
+        return -1;
+      }
+      i = (i + 1) & this.mask;
+    }
+    this.names[i] = name;
+    this.keys[i] = key;
+    this.values[i] = value;
+    this.hashes[i] = hash;
+    return i;
+  }
+
+  /**
+   * Returns the case-insensitive hash of the specified section name and key.
+   */
+  private static int hash(String name, String key) {
+    int h = 0;
+    for (int i = 0; i < name.length(); i++) {
+      h = 31 * h + fold(name.charAt(i));
+    }
+    /* Separate the name from the key so that "ab" + "c" differs from "a" + "bc". */
+    h = 31 * h + Ini.DEFAULT_VARIABLE_DELIMITER;
+    for (int i = 0; i < key.length(); i++) {
+      h = 31 * h + fold(key.charAt(i));
+    }
+    return (h ^ (h >>> 16));
+  }
+
+  /**
+   * Folds the specified character the same way as
+   * {@link String#equalsIgnoreCase(java.lang.String)} compares characters.
+   */
+  private static char fold(char ch) {
+    return Character.toLowerCase(Character.toUpperCase(ch));
+  }
+
+  private static String fold(String str) {
+    char[] chars = new char[str.length()];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = fold(str.charAt(i));
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Tests whether the specified string is null or consists only of
+   * whitespace without creating a trimmed copy.
+   */
+  private static boolean isBlank(String str) {
+    if (str == null) {
+      return true;
+    }
+    for (int i = 0; i < str.length(); i++) {
+      if (str.charAt(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,140 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.ini;
+
+import adakite.ini.exception.IniParseException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of files included by {@link Ini} objects. Each
+ * included file is parsed once into a read-only Ini which is shared by
+ * every Ini that includes it. A cached file is parsed again when its size
+ * or modification time, or that of any file it includes, has changed.
+ */
+final class IncludeCache {
+
+  /**
+   * Parsed included file and the state of the file it was parsed from.
+   */
+  private static final class Entry {
+
+    private final Path path;
+    private final long size;
+    private final FileTime lastModifiedTime;
+    private final Ini ini;
+    private final List<Entry> includes;
+
+    public Entry(Path path, BasicFileAttributes attributes, Ini ini, List<Entry> includes) {
+      this.path = path;
+      this.size = attributes.size();
+      this.lastModifiedTime = attributes.lastModifiedTime();
+      this.ini = ini;
+      this.includes = includes;
+    }
+
+    /**
+     * Tests whether this file and all files it includes are unchanged.
+     */
+    public boolean isCurrent() {
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(this.path, BasicFileAttributes.class);
+        if (attributes.size() != this.size || !attributes.lastModifiedTime().equals(this.lastModifiedTime)) {
+          return false;
+        }
+      } catch (IOException ex) {
+        return false;
+      }
+      for (Entry include : this.includes) {
+        if (!include.isCurrent()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+  private static final ConcurrentHashMap<Path, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+  /* Files being parsed by the current thread, used to detect cycles. */
+  private static final ThreadLocal<LinkedHashSet<Path>> PARSING = ThreadLocal.withInitial(LinkedHashSet::new);
+
+  private IncludeCache() {}
+
+  /**
+   * Returns the shared read-only Ini of the specified file, parsing it if
+   * it is not cached or has changed.
+   *
+   * @param path path to the specified file
+   * @throws IOException if an I/O error occurs
+   * @throws IniParseException if the file cannot be parsed or includes
+   *     itself directly or indirectly
+   */
+  public static Ini get(Path path) throws IOException, IniParseException {
+    Path key = path.toAbsolutePath().normalize();
+    LinkedHashSet<Path> parsing = IncludeCache.PARSING.get();
+    if (parsing.contains(key)) {
+      throw new IniParseException("include cycle: " + parsing + " -> " + key);
+    }
+    Entry entry = IncludeCache.ENTRIES.get(key);
+    if (entry != null && entry.isCurrent()) {
+      return entry.ini;
+    }
+
+    BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+    Ini ini = new Ini();
+    parsing.add(key);
+    try {
+      ini.parse(key, Ini.ParseOption.READ_ONLY);
+    } finally {
+      parsing.remove(key);
+    }
+    List<Entry> includes = new ArrayList<>();
+    for (Path include : ini.getIncludes()) {
+      Entry includeEntry = IncludeCache.ENTRIES.get(include.toAbsolutePath().normalize());
+      if (includeEntry != null) {
+        includes.add(includeEntry);
+      }
+    }
+    IncludeCache.ENTRIES.put(key, new Entry(key, attributes, ini, includes));
+    return ini;
+  }
+
+  /**
+   * Removes all cached files.
+   */
+  public static void clear() {
+    IncludeCache.ENTRIES.clear();
+  }
+
+}
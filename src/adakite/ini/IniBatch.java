@@ -0,0 +1,69 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.ini;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Result of {@link Ini#parseAll(java.util.Collection)} containing every
+ * successfully parsed file and the error of every file which failed.
+ */
+public final class IniBatch {
+
+  private final Map<Path, Ini> inis;
+  private final Map<Path, Exception> errors;
+
+  IniBatch(Map<Path, Ini> inis, Map<Path, Exception> errors) {
+    this.inis = Collections.unmodifiableMap(inis);
+    this.errors = Collections.unmodifiableMap(errors);
+  }
+
+  /**
+   * Returns the successfully parsed files.
+   */
+  public Map<Path, Ini> getInis() {
+    return this.inis;
+  }
+
+  /**
+   * Returns the exception thrown for each file which failed to parse.
+   * The exception is an {@link java.io.IOException}, an
+   * {@link adakite.ini.exception.IniParseException} or any
+   * {@link java.lang.RuntimeException} thrown while parsing the file.
+   */
+  public Map<Path, Exception> getErrors() {
+    return this.errors;
+  }
+
+  /**
+   * Tests whether any file failed to parse.
+   */
+  public boolean hasErrors() {
+    return !this.errors.isEmpty();
+  }
+
+}
@@ -0,0 +1,68 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.ini;
+
+/**
+ * Receiver of the events emitted by {@link IniParser}. The character
+ * sequences passed to each method are views into the internal buffer of the
+ * parser and are only valid until the method returns. Call
+ * {@link CharSequence#toString()} to keep a copy.
+ */
+public interface IniHandler {
+
+  /**
+   * Called when a section header is encountered.
+   *
+   * @param name section name without brackets or surrounding whitespace
+   */
+  default void section(CharSequence name) {}
+
+  /**
+   * Called when a variable is encountered.
+   *
+   * @param key variable key without surrounding whitespace
+   * @param value variable value without surrounding whitespace,
+   *     otherwise an empty sequence if the value is empty
+   */
+  default void variable(CharSequence key, CharSequence value) {}
+
+  /**
+   * Called when a line containing only a comment is encountered.
+   *
+   * @param comment text following the comment delimiter without
+   *     surrounding whitespace
+   */
+  default void comment(CharSequence comment) {}
+
+  /**
+   * Called when an {@link Ini#DEFAULT_INCLUDE_DIRECTIVE} line is
+   * encountered. The parser does not read the included file.
+   *
+   * @param path path of the included file as written, without surrounding
+   *     whitespace or a trailing comment
+   */
+  default void include(CharSequence path) {}
+
+}
@@ -0,0 +1,55 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.ini;
+
+/**
+ * Receiver of the changes made to an {@link Ini}. Listeners are notified
+ * after the change has been applied and outside of any lock held by the
+ * Ini, so they may read from it freely.
+ */
+public interface IniListener {
+
+  /**
+   * Called when the value of a variable has changed.
+   *
+   * @param ini the changed Ini
+   * @param name section name as passed to the changing method
+   * @param key key as passed to the changing method
+   * @param oldValue previous value,
+   *     otherwise null if the variable did not exist or was commented
+   * @param newValue current value,
+   *     otherwise null if the variable was commented
+   */
+  default void valueChanged(Ini ini, String name, String key, String oldValue, String newValue) {}
+
+  /**
+   * Called when the contents of the Ini have been replaced by parsing a
+   * file. Any value may have changed.
+   *
+   * @param ini the changed Ini
+   */
+  default void parsed(Ini ini) {}
+
+}
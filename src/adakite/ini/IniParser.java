@@ -0,0 +1,304 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.ini;
+
+import adakite.debugging.Debugging;
+import adakite.ini.exception.IniParseException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Class for parsing INI data as a stream of events. Unlike
+ * {@link Ini#parse(java.nio.file.Path)}, this class does not keep the lines
+ * or the parsed values in memory. Characters are scanned in place inside a
+ * reusable buffer which only grows if a single line does not fit.
+ *
+ * <p>Lines are interpreted the same way as by {@link Ini}. Include lines
+ * are reported through {@link IniHandler#include(java.lang.CharSequence)}
+ * but the included files are not read. This class is not thread-safe but
+ * may be reused for multiple inputs.</p>
+ */
+public final class IniParser {
+
+  /**
+   * Read-only view of a range of characters inside the parser buffer.
+   */
+  private static final class CharView implements CharSequence {
+
+    private char[] buffer;
+    private int offset;
+    private int length;
+
+    public void set(char[] buffer, int start, int end) {
+      this.buffer = buffer;
+      this.offset = start;
+      this.length = end - start;
+    }
+
+    @Override
+    public int length() {
+      return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= this.length) {
+        throw new IndexOutOfBoundsException("index: " + index);
+      }
+      return this.buffer[this.offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      if (start < 0 || end > this.length || start > end) {
+        throw new IndexOutOfBoundsException("start: " + start + ", end: " + end);
+      }
+      return new String(this.buffer, this.offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return new String(this.buffer, this.offset, this.length);
+    }
+
+  }
+
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private final IniHandler handler;
+  private final CharView key;
+  private final CharView value;
+  private char[] buffer;
+
+  public IniParser(IniHandler handler) {
+    if (handler == null) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL.toString("handler"));
+    }
+    this.handler = handler;
+    this.key = new CharView();
+    this.value = new CharView();
+    this.buffer = new char[DEFAULT_BUFFER_SIZE];
+  }
+
+  /**
+   * Parses the specified UTF-8 encoded stream. The stream is not closed.
+   *
+   * @param in specified input stream
+   * @throws IOException if an I/O error occurs
+   * @throws IniParseException if a line cannot be parsed
+   */
+  public void parse(InputStream in) throws IOException, IniParseException {
+    parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Parses the specified UTF-8 encoded channel. The channel is not closed.
+   *
+   * @param channel specified readable channel
+   * @throws IOException if an I/O error occurs
+   * @throws IniParseException if a line cannot be parsed
+   */
+  public void parse(ReadableByteChannel channel) throws IOException, IniParseException {
+    parse(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1));
+  }
+
+  /**
+   * Parses the specified reader. The reader is not closed.
+   *
+   * @param reader specified reader
+   * @throws IOException if an I/O error occurs
+   * @throws IniParseException if a line cannot be parsed
+   */
+  public void parse(Reader reader) throws IOException, IniParseException {
+    char[] buf = this.buffer;
+    int pos = 0;
+    int limit = 0;
+    int lineNumber = 0;
+    boolean eof = false;
+    boolean skipLineFeed = false;
+
+    while (true) {
+      if (skipLineFeed) {
+        /* Previous line ended with a carriage return at the end of the buffer. */
+        if (pos >= limit && !eof) {
+          pos = 0;
+          limit = 0;
+          int n = reader.read(buf, 0, buf.length);
+          if (n < 0) {
+            eof = true;
+          } else {
+            limit = n;
+          }
+        }
+        if (pos < limit && buf[pos] == '\n') {
+          pos++;
+        }
+        skipLineFeed = false;
+      }
+
+      int lineStart = pos;
+      int i = pos;
+      while (true) {
+        while (i < limit && buf[i] != '\n' && buf[i] != '\r') {
+          i++;
+        }
+        if (i < limit || eof) {
+          break;
+        }
+        /* Line continues past the end of the buffer. Make room and read more. */
+        int length = limit - lineStart;
+        if (lineStart > 0) {
+          System.arraycopy(buf, lineStart, buf, 0, length);
+        } else if (limit == buf.length) {
+          buf = Arrays.copyOf(buf, buf.length * 2);
+          this.buffer = buf;
+        }
+        i -= lineStart;
+        lineStart = 0;
+        limit = length;
+        int n = reader.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+          eof = true;
+        } else {
+          limit += n;
+        }
+      }
+
+      if (lineStart >= limit && eof) {
+        /* No more lines. */
+        return;
+      }
+
+      lineNumber++;
+      parseLine(buf, lineStart, i, lineNumber);
+
+      if (i < limit) {
+        skipLineFeed = (buf[i] == '\r');
+        pos = i + 1;
+      } else {
+        pos = limit;
+      }
+    }
+  }
+
+  private void parseLine(char[] buf, int start, int end, int lineNumber) throws IniParseException {
+    /* Trim the line in place. */
+    while (start < end && buf[start] <= ' ') {
+      start++;
+    }
+    while (end > start && buf[end - 1] <= ' ') {
+      end--;
+    }
+
+    if (start >= end) {
+      /* Line does not contain any data. */
+      return;
+    }
+
+    if (buf[start] == Ini.DEFAULT_COMMENT_DELIMITER) {
+      int commentStart = start + 1;
+      while (commentStart < end && buf[commentStart] <= ' ') {
+        commentStart++;
+      }
+      this.value.set(buf, commentStart, end);
+      this.handler.comment(this.value);
+      return;
+    }
+
+    if (isInclude(buf, start, end)) {
+      int pathStart = start + Ini.DEFAULT_INCLUDE_DIRECTIVE.length();
+      int pathEnd = pathStart;
+      while (pathEnd < end && buf[pathEnd] != Ini.DEFAULT_COMMENT_DELIMITER) {
+        pathEnd++;
+      }
+      while (pathStart < pathEnd && buf[pathStart] <= ' ') {
+        pathStart++;
+      }
+      while (pathEnd > pathStart && buf[pathEnd - 1] <= ' ') {
+        pathEnd--;
+      }
+      if (pathStart >= pathEnd) {
+        throw new IniParseException(lineNumber + ":" + new String(buf, start, end - start));
+      }
+      this.value.set(buf, pathStart, pathEnd);
+      this.handler.include(this.value);
+      return;
+    }
+
+    if (end - start >= 3 && buf[start] == '[' && buf[end - 1] == ']') {
+      int nameStart = start + 1;
+      int nameEnd = end - 1;
+      while (nameStart < nameEnd && buf[nameStart] <= ' ') {
+        nameStart++;
+      }
+      while (nameEnd > nameStart && buf[nameEnd - 1] <= ' ') {
+        nameEnd--;
+      }
+      this.key.set(buf, nameStart, nameEnd);
+      this.handler.section(this.key);
+      return;
+    }
+
+    int delimiter = start;
+    while (delimiter < end && buf[delimiter] != Ini.DEFAULT_VARIABLE_DELIMITER) {
+      delimiter++;
+    }
+    int keyEnd = delimiter;
+    while (keyEnd > start && buf[keyEnd - 1] <= ' ') {
+      keyEnd--;
+    }
+    if (delimiter >= end || keyEnd <= start) {
+      throw new IniParseException(lineNumber + ":" + new String(buf, start, end - start));
+    }
+    int valueStart = delimiter + 1;
+    while (valueStart < end && buf[valueStart] <= ' ') {
+      valueStart++;
+    }
+    this.key.set(buf, start, keyEnd);
+    this.value.set(buf, valueStart, end);
+    this.handler.variable(this.key, this.value);
+  }
+
+  private static boolean isInclude(char[] buf, int start, int end) {
+    String directive = Ini.DEFAULT_INCLUDE_DIRECTIVE;
+    int directiveEnd = start + directive.length();
+    if (directiveEnd > end) {
+      return false;
+    }
+    for (int i = 0; i < directive.length(); i++) {
+      if (buf[start + i] != directive.charAt(i)) {
+        return false;
+      }
+    }
+    return (directiveEnd == end || buf[directiveEnd] <= ' ');
+  }
+
+}
@@ -0,0 +1,209 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.ini;
+
+import adakite.debugging.Debugging;
+import adakite.util.AdakiteUtils;
+import adakite.util.AdakiteUtils.StringCompareOption;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class for looking up variables in several layered {@link Ini} objects,
+ * such as built-in defaults, site configuration and user overrides.
+ * A variable is taken from the layer with the highest precedence which
+ * contains it. Layers are given in order of increasing precedence, so the
+ * last layer overrides all others.
+ *
+ * <p>Resolved lookups are cached in a single flattened map. The stack
+ * listens to each layer and removes a cached entry when that variable
+ * changes in any layer, or the whole cache when a layer is re-parsed.
+ * Call {@link #close()} to stop listening to the layers.</p>
+ */
+public final class IniStack implements Closeable {
+
+  /* Cached marker for variables which are not present in any layer. */
+  private static final String MISSING = new String();
+
+  private final List<Ini> layers;
+  private final ConcurrentHashMap<String, String> cache;
+  /* Incremented before every invalidation. */
+  private final AtomicLong version;
+  private final IniListener listener;
+  /* Set by close(), after which lookups bypass the cache. */
+  private volatile boolean closed;
+
+  /**
+   * Creates a stack of the specified layers.
+   *
+   * @param layers specified layers in order of increasing precedence
+   */
+  public IniStack(List<Ini> layers) {
+    if (layers == null || layers.isEmpty()) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL_OR_EMPTY.toString("layers"));
+    }
+    this.layers = Collections.unmodifiableList(new ArrayList<>(layers));
+    this.cache = new ConcurrentHashMap<>();
+    this.version = new AtomicLong();
+    this.closed = false;
+    this.listener = new IniListener() {
+      @Override
+      public void valueChanged(Ini ini, String name, String key, String oldValue, String newValue) {
+        invalidate(name, key);
+      }
+      @Override
+      public void parsed(Ini ini) {
+        invalidateAll();
+      }
+    };
+    for (Ini layer : this.layers) {
+      layer.addListener(this.listener);
+    }
+  }
+
+  /**
+   * Creates a stack of the specified layers.
+   *
+   * @param layers specified layers in order of increasing precedence
+   */
+  public IniStack(Ini... layers) {
+    this((layers == null) ? null : Arrays.asList(layers));
+  }
+
+  /**
+   * Returns the layers in order of increasing precedence.
+   */
+  public List<Ini> getLayers() {
+    return this.layers;
+  }
+
+  /**
+   * Returns the value of the specified variable from the layer with the
+   * highest precedence which contains it.
+   *
+   * @param name specified section name
+   * @param key specified key
+   * @return
+   *     the value of the specified variable if any layer contains it,
+   *     otherwise null
+   */
+  public String getValue(String name, String key) {
+    if (AdakiteUtils.isNullOrEmpty(key)) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL_OR_EMPTY.toString("key"));
+    }
+    if (this.closed) {
+      /* Changes to the layers are no longer seen, so nothing is cached. */
+      String value = resolve(name, key);
+      return (value == MISSING) ? null : value;
+    }
+    String cacheKey = cacheKey(name, key);
+    String value = this.cache.get(cacheKey);
+    if (value == null) {
+      long expected = this.version.get();
+      value = resolve(name, key);
+      this.cache.put(cacheKey, value);
+      if (this.version.get() != expected) {
+        /* A layer changed during the lookup, so the value may be stale. */
+        this.cache.remove(cacheKey);
+      }
+    }
+    return (value == MISSING) ? null : value;
+  }
+
+  public boolean hasValue(String name, String key) {
+    String val = getValue(name, key);
+    return !AdakiteUtils.isNullOrEmpty(val, StringCompareOption.TRIM);
+  }
+
+  public boolean isEnabled(String name, String key) {
+    return Boolean.parseBoolean(getValue(name, key));
+  }
+
+  /**
+   * Returns the layer with the highest precedence which contains the
+   * specified variable.
+   *
+   * @param name specified section name
+   * @param key specified key
+   * @return
+   *     the layer which provides the value of the specified variable,
+   *     otherwise null if no layer contains it
+   */
+  public Ini getSource(String name, String key) {
+    for (int i = this.layers.size() - 1; i >= 0; i--) {
+      Ini layer = this.layers.get(i);
+      if (layer.getValue(name, key) != null) {
+        return layer;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Stops listening to the layers and clears the cache. Lookups remain
+   * possible but are no longer cached.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    for (Ini layer : this.layers) {
+      layer.removeListener(this.listener);
+    }
+    invalidateAll();
+  }
+
+  private String resolve(String name, String key) {
+    for (int i = this.layers.size() - 1; i >= 0; i--) {
+      String value = this.layers.get(i).getValue(name, key);
+      if (value != null) {
+        return value;
+      }
+    }
+    return IniStack.MISSING;
+  }
+
+  private void invalidate(String name, String key) {
+    this.version.incrementAndGet();
+    this.cache.remove(cacheKey(name, key));
+  }
+
+  private void invalidateAll() {
+    this.version.incrementAndGet();
+    this.cache.clear();
+  }
+
+  private static String cacheKey(String name, String key) {
+    if (AdakiteUtils.isNullOrEmpty(name, StringCompareOption.TRIM)) {
+      name = Ini.DEFAULT_NULL_SECTION_NAME;
+    }
+    return Ini.fold(name) + '\n' + Ini.fold(key);
+  }
+
+}
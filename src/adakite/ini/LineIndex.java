@@ -0,0 +1,158 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.ini;
+
+import java.util.Arrays;
+
+/**
+ * Class for tracking the line positions of the blocks in an INI file. A block
+ * is the run of lines that starts at a section header and ends right before
+ * the next section header. The lines preceding the first section header make
+ * up block zero, which has no header line.
+ *
+ * <p>Block lengths are kept in a Fenwick tree so that the starting line of a
+ * block can be computed and a line can be inserted in O(log n) time where n
+ * is the number of blocks. Positions inside a block are stored as offsets
+ * relative to the start of the block and are therefore not affected by
+ * insertions into other blocks.</p>
+ */
+final class LineIndex {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  /* One-based Fenwick tree of block lengths. */
+  private int[] tree;
+  private int[] lengths;
+  private int[] contentEnds;
+  private int size;
+
+  public LineIndex() {
+    clear();
+  }
+
+  /**
+   * Removes all blocks.
+   */
+  public void clear() {
+    this.tree = new int[DEFAULT_CAPACITY + 1];
+    this.lengths = new int[DEFAULT_CAPACITY];
+    this.contentEnds = new int[DEFAULT_CAPACITY];
+    this.size = 0;
+  }
+
+  /**
+   * Returns the number of blocks.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Appends a block to the end of the index.
+   *
+   * @param length number of lines in the block including its header
+   * @param contentEnd offset of the last non-blank line in the block,
+   *     otherwise -1 if the block does not contain any non-blank lines
+   * @return the ordinal of the new block
+   */
+  public int addBlock(int length, int contentEnd) {
+    if (this.size == this.lengths.length) {
+      int capacity = this.lengths.length * 2;
+      this.tree = Arrays.copyOf(this.tree, capacity + 1);
+      this.lengths = Arrays.copyOf(this.lengths, capacity);
+      this.contentEnds = Arrays.copyOf(this.contentEnds, capacity);
+    }
+    int block = this.size++;
+    int i = block + 1;
+    this.lengths[block] = length;
+    this.contentEnds[block] = contentEnd;
+    /* A Fenwick node covers the range (i - lowbit(i), i]. */
+    this.tree[i] = length + prefix(i - 1) - prefix(i - (i & -i));
+    return block;
+  }
+
+  /**
+   * Returns the absolute index of the first line of the specified block.
+   *
+   * @param block specified block ordinal
+   */
+  public int start(int block) {
+    return prefix(block);
+  }
+
+  /**
+   * Returns the number of lines in the specified block.
+   *
+   * @param block specified block ordinal
+   */
+  public int length(int block) {
+    return this.lengths[block];
+  }
+
+  /**
+   * Returns the offset of the last non-blank line in the specified block.
+   *
+   * @param block specified block ordinal
+   */
+  public int contentEnd(int block) {
+    return this.contentEnds[block];
+  }
+
+  /**
+   * Returns the absolute index at which a new line would be inserted to
+   * append it to the content of the specified block.
+   *
+   * @param block specified block ordinal
+   */
+  public int insertionPoint(int block) {
+    return start(block) + this.contentEnds[block] + 1;
+  }
+
+  /**
+   * Records a line inserted at the {@link #insertionPoint(int)} of the
+   * specified block and returns the offset of the new line.
+   *
+   * @param block specified block ordinal
+   */
+  public int insertLine(int block) {
+    this.lengths[block]++;
+    for (int i = block + 1; i <= this.size; i += (i & -i)) {
+      this.tree[i]++;
+    }
+    return ++this.contentEnds[block];
+  }
+
+  /**
+   * Returns the sum of the lengths of the first n blocks.
+   */
+  private int prefix(int n) {
+    int sum = 0;
+    for (int i = n; i > 0; i -= (i & -i)) {
+      sum += this.tree[i];
+    }
+    return sum;
+  }
+
+}
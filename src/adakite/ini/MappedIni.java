@@ -0,0 +1,364 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.ini;
+
+import adakite.debugging.Debugging;
+import adakite.ini.exception.IniParseException;
+import adakite.settings.Settings;
+import adakite.util.AdakiteUtils;
+import adakite.util.AdakiteUtils.StringCompareOption;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Class for reading very large INI files without decoding them up front.
+ * The file is memory-mapped and only scanned for section headers when it
+ * is opened. The variables of a section are decoded the first time the
+ * section is accessed and are kept for subsequent lookups.
+ *
+ * <p>Files included through {@link Ini#DEFAULT_INCLUDE_DIRECTIVE} lines are
+ * parsed when the file is opened, using the same shared cache as
+ * {@link Ini}. Variables in the mapped file override included ones and
+ * later includes override earlier ones.</p>
+ *
+ * <p>Section names and keys are compared case-insensitively. Instances are
+ * read-only and thread-safe. The file must not be modified while it is
+ * mapped.</p>
+ */
+public final class MappedIni {
+
+  private static final class Section {
+
+    private final String name;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+    /* Case-folded keys mapped to the original key and value. */
+    private volatile HashMap<String, String[]> variables;
+
+    public Section(String name) {
+      this.name = name;
+      this.starts = new int[1];
+      this.ends = new int[1];
+      this.size = 0;
+      this.variables = null;
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * Adds the byte range of a block of lines belonging to this section.
+     */
+    public void addRange(int start, int end) {
+      if (this.size == this.starts.length) {
+        this.starts = Arrays.copyOf(this.starts, this.size * 2);
+        this.ends = Arrays.copyOf(this.ends, this.size * 2);
+      }
+      this.starts[this.size] = start;
+      this.ends[this.size] = end;
+      this.size++;
+    }
+
+  }
+
+  private final Path path;
+  private final MappedByteBuffer buffer;
+  private final HashMap<String, Section> sections;
+  /* Included files in order of increasing precedence. */
+  private final List<Ini> includes;
+
+  /**
+   * Maps the specified INI file into memory and indexes its sections.
+   *
+   * @param path path to the specified file
+   * @throws IOException if an I/O error occurs or the file is too large
+   *     to be mapped
+   * @throws IniParseException if an include line has no path or an
+   *     included file cannot be parsed
+   */
+  public MappedIni(Path path) throws IOException, IniParseException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("file too large to map: " + path.toString());
+      }
+      this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    this.path = path;
+    this.sections = new HashMap<>();
+    List<String> includeNames = new ArrayList<>();
+    indexSections(includeNames);
+    List<Ini> includes = new ArrayList<>();
+    for (String includeName : includeNames) {
+      includes.add(IncludeCache.get(path.toAbsolutePath().resolveSibling(includeName)));
+    }
+    this.includes = Collections.unmodifiableList(includes);
+  }
+
+  /**
+   * Returns the path to the mapped file.
+   */
+  public Path getPath() {
+    return this.path;
+  }
+
+  /**
+   * Returns the value of the specified key in the specified section.
+   *
+   * @param name specified section name
+   * @param key specified key
+   * @return
+   *     the value of the specified key if it exists,
+   *     otherwise null
+   * @throws IniParseException if the section contains a malformed line
+   */
+  public String getValue(String name, String key) throws IniParseException {
+    if (AdakiteUtils.isNullOrEmpty(name, StringCompareOption.TRIM)) {
+      name = Ini.DEFAULT_NULL_SECTION_NAME;
+    }
+    if (AdakiteUtils.isNullOrEmpty(key)) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL_OR_EMPTY.toString("key"));
+    }
+    Section section = this.sections.get(Ini.fold(name));
+    if (section != null) {
+      String[] variable = getVariables(section).get(Ini.fold(key));
+      if (variable != null) {
+        return variable[1];
+      }
+    }
+    for (int i = this.includes.size() - 1; i >= 0; i--) {
+      String value = this.includes.get(i).getValue(name, key);
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  public boolean hasValue(String name, String key) throws IniParseException {
+    String val = getValue(name, key);
+    return !AdakiteUtils.isNullOrEmpty(val, StringCompareOption.TRIM);
+  }
+
+  public boolean isEnabled(String name, String key) throws IniParseException {
+    return (hasValue(name, key) && getValue(name, key).equalsIgnoreCase(Boolean.TRUE.toString()));
+  }
+
+  /**
+   * Returns a copy of the settings of the specified section.
+   *
+   * @param name name of the specified section
+   * @return
+   *     a copy of the settings of the specified section if it exists,
+   *     otherwise null
+   * @throws IniParseException if the section contains a malformed line
+   */
+  public Settings getSectionSettings(String name) throws IniParseException {
+    if (AdakiteUtils.isNullOrEmpty(name, StringCompareOption.TRIM)) {
+      name = Ini.DEFAULT_NULL_SECTION_NAME;
+    }
+    /* Case-folded keys mapped to the key and value which take precedence. */
+    LinkedHashMap<String, String[]> variables = new LinkedHashMap<>();
+    boolean found = false;
+    for (Ini include : this.includes) {
+      Settings included = include.getSectionSettings(name);
+      if (included == null) {
+        continue;
+      }
+      found = true;
+      Enumeration<String> keys = included.getKeys();
+      while (keys.hasMoreElements()) {
+        String key = keys.nextElement();
+        variables.put(Ini.fold(key), new String[] {key, included.getValue(key)});
+      }
+    }
+    Section section = this.sections.get(Ini.fold(name));
+    if (section != null) {
+      found = true;
+      variables.putAll(getVariables(section));
+    }
+    if (!found) {
+      return null;
+    }
+    Settings settings = new Settings();
+    for (String[] variable : variables.values()) {
+      settings.set(variable[0], variable[1]);
+    }
+    return settings;
+  }
+
+  /**
+   * Tests whether the specified section has been decoded.
+   *
+   * @param name name of the specified section
+   */
+  public boolean isDecoded(String name) {
+    Section section = this.sections.get(Ini.fold(name));
+    return (section != null && section.variables != null);
+  }
+
+  /**
+   * Scans the mapped file for section headers and records the byte range
+   * of the lines following each header.
+   *
+   * @param includes empty list to fill with the names of included files
+   * @throws IniParseException if an include line has no path
+   */
+  private void indexSections(List<String> includes) throws IniParseException {
+    ByteBuffer buf = this.buffer;
+    int limit = buf.limit();
+    Section section = new Section(Ini.DEFAULT_NULL_SECTION_NAME);
+    this.sections.put(section.getName(), section);
+    int blockStart = 0;
+    int lineStart = 0;
+    int lineNumber = 0;
+    while (lineStart < limit) {
+      if (lineStart == 0 || buf.get(lineStart - 1) != '\r' || buf.get(lineStart) != '\n') {
+        /* The line feed of a carriage return and line feed pair is not a line. */
+        lineNumber++;
+      }
+      int lineEnd = lineStart;
+      while (lineEnd < limit && buf.get(lineEnd) != '\n' && buf.get(lineEnd) != '\r') {
+        lineEnd++;
+      }
+      int first = lineStart;
+      int last = lineEnd - 1;
+      while (first <= last && isWhitespace(buf.get(first))) {
+        first++;
+      }
+      while (last >= first && isWhitespace(buf.get(last))) {
+        last--;
+      }
+      if (last - first >= 2 && buf.get(first) == '[' && buf.get(last) == ']') {
+        /* Close the current block and start a new one for the section. */
+        section.addRange(blockStart, lineStart);
+        String name = decode(first + 1, last).trim();
+        section = this.sections.get(Ini.fold(name));
+        if (section == null) {
+          section = new Section(name);
+          this.sections.put(Ini.fold(name), section);
+        }
+        blockStart = lineEnd;
+      } else if (isInclude(first, last)) {
+        String line = decode(first, last + 1);
+        String include = line.substring(Ini.DEFAULT_INCLUDE_DIRECTIVE.length());
+        int commentIndex = include.indexOf(Ini.DEFAULT_COMMENT_DELIMITER);
+        include = ((commentIndex < 0) ? include : include.substring(0, commentIndex)).trim();
+        if (include.isEmpty()) {
+          throw new IniParseException(this.path.toString() + ":" + lineNumber + ":" + line);
+        }
+        includes.add(include);
+      }
+      lineStart = lineEnd + 1;
+    }
+    section.addRange(blockStart, limit);
+  }
+
+  private HashMap<String, String[]> getVariables(Section section) throws IniParseException {
+    HashMap<String, String[]> variables = section.variables;
+    if (variables != null) {
+      return variables;
+    }
+    synchronized (section) {
+      if (section.variables == null) {
+        section.variables = decodeSection(section);
+      }
+      return section.variables;
+    }
+  }
+
+  private HashMap<String, String[]> decodeSection(Section section) throws IniParseException {
+    LinkedHashMap<String, String[]> variables = new LinkedHashMap<>();
+    IniParser parser = new IniParser(new IniHandler() {
+      @Override
+      public void variable(CharSequence key, CharSequence value) {
+        String str = key.toString();
+        String[] variable = variables.get(Ini.fold(str));
+        if (variable == null) {
+          variables.put(Ini.fold(str), new String[] {str, value.toString()});
+        } else {
+          variable[1] = value.toString();
+        }
+      }
+    });
+    for (int i = 0; i < section.size; i++) {
+      CharBuffer chars = decodeChars(section.starts[i], section.ends[i]);
+      try {
+        parser.parse(new CharArrayReader(chars.array(), chars.arrayOffset(), chars.remaining()));
+      } catch (IniParseException ex) {
+        throw new IniParseException(this.path.toString() + ":[" + section.getName() + "]:" + ex.getMessage());
+      } catch (IOException ex) {
+        /* Reading from a char array does not perform any I/O. */
+        throw new IllegalStateException(ex);
+      }
+    }
+    return variables;
+  }
+
+  private CharBuffer decodeChars(int start, int end) {
+    ByteBuffer slice = this.buffer.duplicate();
+    slice.limit(end).position(start);
+    return StandardCharsets.UTF_8.decode(slice);
+  }
+
+  private String decode(int start, int end) {
+    return decodeChars(start, end).toString();
+  }
+
+  private boolean isInclude(int first, int last) {
+    String directive = Ini.DEFAULT_INCLUDE_DIRECTIVE;
+    if (last - first + 1 < directive.length()) {
+      return false;
+    }
+    for (int i = 0; i < directive.length(); i++) {
+      if (this.buffer.get(first + i) != directive.charAt(i)) {
+        return false;
+      }
+    }
+    int end = first + directive.length();
+    return (end > last || isWhitespace(this.buffer.get(end)));
+  }
+
+  private static boolean isWhitespace(byte b) {
+    /* Multi-byte UTF-8 sequences only contain bytes with the high bit set. */
+    return (b >= 0 && b <= ' ');
+  }
+
+}
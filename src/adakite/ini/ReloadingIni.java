@@ -0,0 +1,188 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.ini;
+
+import adakite.ini.exception.IniParseException;
+import adakite.settings.Settings;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Class for reading an INI file which is automatically re-parsed whenever
+ * it changes on disk. Each parse produces a new {@link FrozenIni} which is
+ * published through a single volatile reference.
+ * Readers therefore never block and always see either the previous or the
+ * next complete state of the file.
+ *
+ * <p>If a re-parse fails, the previous state is kept and the failure is
+ * available through {@link #getLastError()}.</p>
+ */
+public final class ReloadingIni implements Closeable {
+
+  private final Path path;
+  private final WatchService watchService;
+  private final Thread watcher;
+  private volatile FrozenIni snapshot;
+  private volatile Exception lastError;
+  /* Serializes re-parses so that an older parse is never published last. */
+  private final Object reloadLock;
+
+  /**
+   * Parses the specified INI file and starts watching it for changes.
+   *
+   * @param path path to the specified file
+   * @throws IOException if an I/O error occurs
+   * @throws IniParseException if the file cannot be parsed
+   */
+  public ReloadingIni(Path path) throws IOException, IniParseException {
+    this.path = path.toAbsolutePath();
+    this.reloadLock = new Object();
+    this.snapshot = parse();
+    this.lastError = null;
+    this.watchService = this.path.getFileSystem().newWatchService();
+    try {
+      this.path.getParent().register(
+          this.watchService,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY
+      );
+    } catch (IOException ex) {
+      this.watchService.close();
+      throw ex;
+    }
+    this.watcher = new Thread(this::watch, "ReloadingIni-" + this.path.getFileName());
+    this.watcher.setDaemon(true);
+    this.watcher.start();
+  }
+
+  /**
+   * Returns the path to the watched file.
+   */
+  public Path getPath() {
+    return this.path;
+  }
+
+  public String getValue(String name, String key) {
+    return this.snapshot.getValue(name, key);
+  }
+
+  public boolean hasValue(String name, String key) {
+    return this.snapshot.hasValue(name, key);
+  }
+
+  public boolean isEnabled(String name, String key) {
+    return this.snapshot.isEnabled(name, key);
+  }
+
+  /**
+   * Returns a copy of the settings of the specified section.
+   *
+   * @param sectionName name of the specified section
+   */
+  public Settings getSectionSettings(String sectionName) {
+    return this.snapshot.getSectionSettings(sectionName);
+  }
+
+  /**
+   * Returns the exception thrown by the most recent re-parse,
+   * otherwise null if it succeeded.
+   */
+  public Exception getLastError() {
+    return this.lastError;
+  }
+
+  /**
+   * Re-parses the file immediately and publishes the result. Reloads
+   * requested concurrently, including those of the watcher thread, run
+   * one after another, so the last published state is always that of the
+   * last parse.
+   *
+   * @throws IOException if an I/O error occurs
+   * @throws IniParseException if the file cannot be parsed
+   */
+  public void reload() throws IOException, IniParseException {
+    synchronized (this.reloadLock) {
+      try {
+        this.snapshot = parse();
+        this.lastError = null;
+      } catch (IOException | IniParseException ex) {
+        this.lastError = ex;
+        throw ex;
+      }
+    }
+  }
+
+  /**
+   * Stops watching the file. The last published state remains readable.
+   *
+   * @throws IOException if an I/O error occurs
+   */
+  @Override
+  public void close() throws IOException {
+    this.watchService.close();
+    this.watcher.interrupt();
+  }
+
+  private FrozenIni parse() throws IOException, IniParseException {
+    Ini ini = new Ini();
+    ini.parse(this.path);
+    return ini.freeze();
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey key = this.watchService.take();
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW
+              || this.path.getFileName().equals(event.context())) {
+            changed = true;
+          }
+        }
+        if (changed) {
+          try {
+            reload();
+          } catch (IOException | IniParseException ex) {
+            /* Keep the previous state. The error is available via getLastError(). */
+          }
+        }
+        if (!key.reset()) {
+          /* Directory is no longer accessible. */
+          return;
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException ex) {
+      /* Watcher was closed. */
+    }
+  }
+
+}
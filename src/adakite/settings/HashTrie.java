@@ -0,0 +1,409 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.settings;
+
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Immutable hash array mapped trie. Each change returns a new trie which
+ * shares all nodes off the changed path with the previous one, so a
+ * snapshot is a reference copy and a change copies at most one small
+ * array per level.
+ *
+ * <p>Keys and values must not be null.</p>
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+final class HashTrie<K, V> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << HashTrie.BITS) - 1;
+  /* Six levels of five bits and one of two bits, plus a collision node. */
+  private static final int MAX_DEPTH = 8;
+
+  private static final HashTrie<?, ?> EMPTY = new HashTrie<>(BitmapNode.EMPTY);
+
+  /**
+   * Node whose array holds pairs of a key and its value. In a
+   * {@link BitmapNode}, a pair with a null key holds a child node instead.
+   */
+  private abstract static class Node {
+
+    protected final Object[] array;
+
+    protected Node(Object[] array) {
+      this.array = array;
+    }
+
+    public abstract Object find(int shift, int hash, Object key);
+
+    /**
+     * Returns this node if the mapping is already present, otherwise a
+     * changed copy.
+     */
+    public abstract Node put(int shift, int hash, Object key, Object value);
+
+    /**
+     * Returns this node if the key is not present, null if the node
+     * becomes empty, otherwise a changed copy.
+     */
+    public abstract Node remove(int shift, int hash, Object key);
+
+    /**
+     * Tests whether this node holds a single key and no child, so that
+     * its parent can hold the pair directly.
+     */
+    public boolean isSingleKey() {
+      return this.array.length == 2 && this.array[0] != null;
+    }
+
+  }
+
+  private static final class BitmapNode extends Node {
+
+    private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private final int bitmap;
+
+    private BitmapNode(int bitmap, Object[] array) {
+      super(array);
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    public Object find(int shift, int hash, Object key) {
+      int bit = bit(shift, hash);
+      if ((this.bitmap & bit) == 0) {
+        return null;
+      }
+      int index = index(bit);
+      Object k = this.array[index];
+      Object v = this.array[index + 1];
+      if (k == null) {
+        return ((Node) v).find(shift + HashTrie.BITS, hash, key);
+      }
+      return key.equals(k) ? v : null;
+    }
+
+    @Override
+    public Node put(int shift, int hash, Object key, Object value) {
+      int bit = bit(shift, hash);
+      int index = index(bit);
+      if ((this.bitmap & bit) == 0) {
+        Object[] array = new Object[this.array.length + 2];
+        System.arraycopy(this.array, 0, array, 0, index);
+        array[index] = key;
+        array[index + 1] = value;
+        System.arraycopy(this.array, index, array, index + 2, this.array.length - index);
+        return new BitmapNode(this.bitmap | bit, array);
+      }
+      Object k = this.array[index];
+      Object v = this.array[index + 1];
+      if (k == null) {
+        Node child = ((Node) v).put(shift + HashTrie.BITS, hash, key, value);
+        return (child == v) ? this : with(index, null, child);
+      } else if (key.equals(k)) {
+        /* Replace the key as well so that a pooled key takes its place. */
+        return (k == key && v == value) ? this : with(index, key, value);
+      }
+      return with(index, null, createNode(shift + HashTrie.BITS, k, v, hash, key, value));
+    }
+
+    @Override
+    public Node remove(int shift, int hash, Object key) {
+      int bit = bit(shift, hash);
+      if ((this.bitmap & bit) == 0) {
+        return this;
+      }
+      int index = index(bit);
+      Object k = this.array[index];
+      Object v = this.array[index + 1];
+      if (k == null) {
+        Node child = ((Node) v).remove(shift + HashTrie.BITS, hash, key);
+        if (child == v) {
+          return this;
+        } else if (child == null) {
+          return without(bit, index);
+        } else if (child.isSingleKey()) {
+          return with(index, child.array[0], child.array[1]);
+        }
+        return with(index, null, child);
+      } else if (key.equals(k)) {
+        return without(bit, index);
+      }
+      return this;
+    }
+
+    private Node with(int index, Object key, Object value) {
+      Object[] array = this.array.clone();
+      array[index] = key;
+      array[index + 1] = value;
+      return new BitmapNode(this.bitmap, array);
+    }
+
+    private Node without(int bit, int index) {
+      if (this.bitmap == bit) {
+        return null;
+      }
+      Object[] array = new Object[this.array.length - 2];
+      System.arraycopy(this.array, 0, array, 0, index);
+      System.arraycopy(this.array, index + 2, array, index, array.length - index);
+      return new BitmapNode(this.bitmap & ~bit, array);
+    }
+
+    private int index(int bit) {
+      return 2 * Integer.bitCount(this.bitmap & (bit - 1));
+    }
+
+    private static int bit(int shift, int hash) {
+      return 1 << ((hash >>> shift) & HashTrie.MASK);
+    }
+
+  }
+
+  /**
+   * Node holding keys whose hashes are equal.
+   */
+  private static final class CollisionNode extends Node {
+
+    private final int hash;
+
+    private CollisionNode(int hash, Object[] array) {
+      super(array);
+      this.hash = hash;
+    }
+
+    @Override
+    public Object find(int shift, int hash, Object key) {
+      int index = indexOf(hash, key);
+      return (index < 0) ? null : this.array[index + 1];
+    }
+
+    @Override
+    public Node put(int shift, int hash, Object key, Object value) {
+      if (hash != this.hash) {
+        /* Push this node down below a bitmap node which tells both apart. */
+        Node node = new BitmapNode(BitmapNode.bit(shift, this.hash), new Object[] {null, this});
+        return node.put(shift, hash, key, value);
+      }
+      int index = indexOf(hash, key);
+      Object[] array;
+      if (index < 0) {
+        array = new Object[this.array.length + 2];
+        System.arraycopy(this.array, 0, array, 0, this.array.length);
+        index = this.array.length;
+      } else if (this.array[index] == key && this.array[index + 1] == value) {
+        return this;
+      } else {
+        array = this.array.clone();
+      }
+      array[index] = key;
+      array[index + 1] = value;
+      return new CollisionNode(this.hash, array);
+    }
+
+    @Override
+    public Node remove(int shift, int hash, Object key) {
+      int index = indexOf(hash, key);
+      if (index < 0) {
+        return this;
+      } else if (this.array.length == 2) {
+        return null;
+      }
+      Object[] array = new Object[this.array.length - 2];
+      System.arraycopy(this.array, 0, array, 0, index);
+      System.arraycopy(this.array, index + 2, array, index, array.length - index);
+      return new CollisionNode(this.hash, array);
+    }
+
+    private int indexOf(int hash, Object key) {
+      if (hash == this.hash) {
+        for (int i = 0; i < this.array.length; i += 2) {
+          if (key.equals(this.array[i])) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+
+  }
+
+  /**
+   * Enumerates the keys depth-first using one array and position per
+   * level instead of recursion.
+   */
+  private static final class KeyEnumeration<K> implements Enumeration<K> {
+
+    private final Object[][] arrays;
+    private final int[] indices;
+    private int depth;
+    private K next;
+
+    private KeyEnumeration(Node root) {
+      this.arrays = new Object[HashTrie.MAX_DEPTH][];
+      this.indices = new int[HashTrie.MAX_DEPTH];
+      this.arrays[0] = root.array;
+      this.depth = 0;
+      advance();
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      return this.next != null;
+    }
+
+    @Override
+    public K nextElement() {
+      K key = this.next;
+      if (key == null) {
+        throw new NoSuchElementException();
+      }
+      advance();
+      return key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void advance() {
+      this.next = null;
+      while (this.depth >= 0) {
+        Object[] array = this.arrays[this.depth];
+        int index = this.indices[this.depth];
+        if (index >= array.length) {
+          this.arrays[this.depth--] = null;
+          continue;
+        }
+        this.indices[this.depth] = index + 2;
+        if (array[index] != null) {
+          this.next = (K) array[index];
+          return;
+        }
+        this.depth++;
+        this.arrays[this.depth] = ((Node) array[index + 1]).array;
+        this.indices[this.depth] = 0;
+      }
+    }
+
+  }
+
+  private final Node root;
+
+  private HashTrie(Node root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns the empty trie.
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> HashTrie<K, V> empty() {
+    return (HashTrie<K, V>) HashTrie.EMPTY;
+  }
+
+  /**
+   * Returns the value mapped to the specified key.
+   *
+   * @param key specified key
+   * @return
+   *     the value mapped to the key,
+   *     otherwise null
+   */
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    return (V) this.root.find(0, hash(key), key);
+  }
+
+  /**
+   * Tests if the specified key is present.
+   *
+   * @param key the specified key
+   */
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Returns a trie in which the specified key is mapped to the specified
+   * value.
+   *
+   * @param key specified key
+   * @param value specified value
+   * @return
+   *     this trie if the key is already mapped to the same key and value
+   *     instances, otherwise a changed copy
+   */
+  public HashTrie<K, V> put(K key, V value) {
+    Objects.requireNonNull(value);
+    Node root = this.root.put(0, hash(key), key, value);
+    return (root == this.root) ? this : new HashTrie<>(root);
+  }
+
+  /**
+   * Returns a trie without the specified key.
+   *
+   * @param key specified key
+   * @return
+   *     this trie if the key is not present,
+   *     otherwise a changed copy
+   */
+  public HashTrie<K, V> remove(Object key) {
+    Node root = this.root.remove(0, hash(key), key);
+    if (root == this.root) {
+      return this;
+    } else if (root == null) {
+      return empty();
+    }
+    return new HashTrie<>(root);
+  }
+
+  /**
+   * Returns the keys in no particular order.
+   */
+  public Enumeration<K> keys() {
+    return new KeyEnumeration<>(this.root);
+  }
+
+  /**
+   * Creates a node holding two pairs whose keys differ.
+   */
+  private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+    int hash1 = hash(key1);
+    if (hash1 == hash2) {
+      return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+    }
+    return BitmapNode.EMPTY
+        .put(shift, hash1, key1, value1)
+        .put(shift, hash2, key2, value2);
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+}
@@ -24,29 +24,316 @@
 
 package adakite.settings;
 
+import adakite.debugging.Debugging;
 import adakite.util.AdakiteUtils;
 import adakite.util.AdakiteUtils.StringCompareOption;
+import adakite.util.StringPool;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Class for storing settings pairs in memory.
+ *
+ * <p>The typed accessors such as {@link #getInt(java.lang.String, int)}
+ * cache the parsed representation of a value until the value is set
+ * again, so repeatedly reading the same setting does not re-parse it.</p>
+ *
+ * <p>The settings are stored in an immutable hash trie which is replaced on
+ * every change. Copying settings therefore only copies a reference, and
+ * the copy and the original share all storage until either of them is
+ * changed.</p>
+ *
+ * <p>Listeners added with {@link #addListener(adakite.settings.SettingsListener, java.util.concurrent.Executor)}
+ * are notified of changes on their own executor. Changes which happen
+ * before a pending notification has run are coalesced into it. Listeners
+ * added with a delay collect the changes for that long before they are
+ * notified, which bounds the number of notifications during a burst of
+ * changes.</p>
  */
 public final class Settings {
 
-  private final ConcurrentHashMap<String, String> settings;
+  public enum ListenerOption {
+
+    /**
+     * Matches every key which starts with the specified key instead of
+     * only the specified key itself.
+     */
+    PREFIX
+    ;
+
+  }
+
+  /**
+   * Parsed representation of a value.
+   */
+  private static final class Parsed {
+
+    private final String source;
+    private final Class<?> type;
+    private final Object value;
+
+    public Parsed(String source, Class<?> type, Object value) {
+      this.source = source;
+      this.type = type;
+      this.value = value;
+    }
+
+  }
+
+  /**
+   * Listener registration which collects the changed keys until its
+   * pending notification runs. At most one notification per registration
+   * is queued or running at a time.
+   */
+  private final class Registration {
+
+    private final SettingsListener listener;
+    private final Executor executor;
+    /* Executor which delays the notifications or null to run them at once. */
+    private final ScheduledExecutorService scheduler;
+    private final long delay;
+    /* Key to match or null to match every key. */
+    private final String key;
+    private final boolean prefix;
+    private LinkedHashSet<String> pending;
+    private boolean scheduled;
+    private volatile boolean removed;
+
+    public Registration(SettingsListener listener, Executor executor, String key, boolean prefix) {
+      this(listener, executor, null, 0, key, prefix);
+    }
+
+    public Registration(SettingsListener listener, ScheduledExecutorService scheduler, long delay, String key, boolean prefix) {
+      this(listener, scheduler, scheduler, delay, key, prefix);
+    }
+
+    private Registration(SettingsListener listener, Executor executor, ScheduledExecutorService scheduler, long delay, String key, boolean prefix) {
+      this.listener = listener;
+      this.executor = executor;
+      this.scheduler = scheduler;
+      this.delay = delay;
+      this.key = key;
+      this.prefix = prefix;
+      this.pending = new LinkedHashSet<>();
+      this.scheduled = false;
+      this.removed = false;
+    }
+
+    public boolean matches(String key) {
+      if (this.key == null) {
+        return true;
+      }
+      return this.prefix ? key.startsWith(this.key) : key.equals(this.key);
+    }
+
+    public void changed(String key) {
+      synchronized (this) {
+        this.pending.add(key);
+        if (this.scheduled) {
+          /* The queued notification picks up this key. */
+          return;
+        }
+        this.scheduled = true;
+      }
+      schedule();
+    }
+
+    private void schedule() {
+      try {
+        if (this.scheduler != null && this.delay > 0) {
+          /* Changes made until the delay has passed join this notification. */
+          this.scheduler.schedule(this::deliver, this.delay, TimeUnit.NANOSECONDS);
+        } else {
+          this.executor.execute(this::deliver);
+        }
+      } catch (RejectedExecutionException ex) {
+        /* Keep the keys so that the next change retries the notification. */
+        synchronized (this) {
+          this.scheduled = false;
+        }
+      }
+    }
+
+    private void deliver() {
+      Set<String> keys;
+      synchronized (this) {
+        keys = this.pending;
+        this.pending = new LinkedHashSet<>();
+      }
+      try {
+        if (!this.removed && !keys.isEmpty()) {
+          this.listener.settingsChanged(new Settings(Settings.this), Collections.unmodifiableSet(keys));
+        }
+      } finally {
+        boolean reschedule;
+        synchronized (this) {
+          reschedule = !this.pending.isEmpty();
+          this.scheduled = reschedule;
+        }
+        if (reschedule) {
+          schedule();
+        }
+      }
+    }
+
+  }
+
+  private final AtomicReference<HashTrie<String, String>> settings;
+  private final ConcurrentHashMap<String, Parsed> parsed;
+  private volatile StringPool stringPool;
+  /* Sorted keys, created on the first ordered query. */
+  private volatile ConcurrentSkipListSet<String> sortedKeys;
+  private final CopyOnWriteArrayList<Registration> listeners;
 
   public Settings() {
-    this.settings = new ConcurrentHashMap<>();
+    this.settings = new AtomicReference<>(HashTrie.empty());
+    this.parsed = new ConcurrentHashMap<>();
+    this.listeners = new CopyOnWriteArrayList<>();
   }
 
+  /**
+   * Creates a snapshot of the specified settings in constant time. Later
+   * changes to either settings object are not visible in the other.
+   * Listeners are not copied.
+   *
+   * @param settings specified settings
+   */
   public Settings(Settings settings) {
-    this.settings = new ConcurrentHashMap<>();
-    Enumeration<String> enums = settings.getKeys();
-    while (enums.hasMoreElements()) {
-      String key = enums.nextElement();
-      set(key, settings.getValue(key));
+    this.settings = new AtomicReference<>(settings.settings.get());
+    this.parsed = new ConcurrentHashMap<>();
+    this.stringPool = settings.getStringPool();
+    this.listeners = new CopyOnWriteArrayList<>();
+  }
+
+  /**
+   * Adds a listener which is notified on the specified executor whenever
+   * a key is set to a different value or removed.
+   *
+   * @param listener specified listener
+   * @param executor executor which runs the notifications
+   * @see #addListener(adakite.settings.SettingsListener, java.util.concurrent.Executor, java.lang.String, adakite.settings.Settings.ListenerOption...)
+   */
+  public void addListener(SettingsListener listener, Executor executor) {
+    addListener(listener, executor, null, (ListenerOption[]) null);
+  }
+
+  /**
+   * Adds a listener which is notified on the specified executor whenever
+   * the specified key is set to a different value or removed. With
+   * {@link ListenerOption#PREFIX}, every key starting with the specified
+   * key is matched.
+   *
+   * <p>A notification is handed to the executor at the first matching
+   * change and receives all matching keys changed until it runs, so a burst
+   * of changes results in a single call. Notifications for the same
+   * listener never overlap. If the executor rejects a notification, the
+   * keys are delivered with the next matching change.</p>
+   *
+   * @param listener specified listener
+   * @param executor executor which runs the notifications
+   * @param key key to match or null to match every key
+   * @param options listener options
+   */
+  public void addListener(SettingsListener listener, Executor executor, String key, ListenerOption... options) {
+    if (listener == null) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL_OR_EMPTY.toString("listener"));
+    } else if (executor == null) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL_OR_EMPTY.toString("executor"));
+    }
+    List<ListenerOption> listenerOptions = (options == null) ? new ArrayList<>() : Arrays.asList(options);
+    this.listeners.add(new Registration(listener, executor, key, listenerOptions.contains(ListenerOption.PREFIX)));
+  }
+
+  /**
+   * Adds a listener which is notified on the specified executor whenever
+   * the specified key is set to a different value or removed, at most
+   * once per the specified delay. With {@link ListenerOption#PREFIX},
+   * every key starting with the specified key is matched.
+   *
+   * <p>A notification is scheduled with the specified delay at the first
+   * matching change and receives all matching keys changed until it runs,
+   * so a burst of changes results in one call per delay instead of one
+   * call per free executor slot. Changes made while a notification is
+   * running are delivered with the next one, again after the delay.
+   * Notifications for the same listener never overlap. If the executor
+   * rejects a notification, the keys are delivered with the next matching
+   * change.</p>
+   *
+   * @param listener specified listener
+   * @param executor executor which delays and runs the notifications
+   * @param delay time to collect changes before a notification runs
+   * @param key key to match or null to match every key
+   * @param options listener options
+   * @see #addListener(adakite.settings.SettingsListener, java.util.concurrent.Executor, java.lang.String, adakite.settings.Settings.ListenerOption...)
+   */
+  public void addListener(SettingsListener listener, ScheduledExecutorService executor, Duration delay, String key, ListenerOption... options) {
+    if (listener == null) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL_OR_EMPTY.toString("listener"));
+    } else if (executor == null) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL_OR_EMPTY.toString("executor"));
+    } else if (delay == null) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL.toString("delay"));
+    } else if (delay.isNegative()) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NEGATIVE.toString("delay"));
     }
+    List<ListenerOption> listenerOptions = (options == null) ? new ArrayList<>() : Arrays.asList(options);
+    this.listeners.add(new Registration(listener, executor, delay.toNanos(), key, listenerOptions.contains(ListenerOption.PREFIX)));
+  }
+
+  /**
+   * Removes every registration of the specified listener. Notifications
+   * which are already pending are discarded.
+   *
+   * @param listener specified listener
+   */
+  public void removeListener(SettingsListener listener) {
+    for (Registration registration : this.listeners) {
+      if (registration.listener == listener) {
+        registration.removed = true;
+        this.listeners.remove(registration);
+      }
+    }
+  }
+
+  /**
+   * Returns the pool through which keys and values are deduplicated.
+   *
+   * @return
+   *     the string pool if one is set,
+   *     otherwise null
+   */
+  public StringPool getStringPool() {
+    return this.stringPool;
+  }
+
+  /**
+   * Sets the pool through which keys and values passed to
+   * {@link #set(java.lang.String, java.lang.String)} are deduplicated.
+   * Settings which are already stored are not affected.
+   *
+   * @param stringPool specified string pool or null to disable pooling
+   */
+  public void setStringPool(StringPool stringPool) {
+    this.stringPool = stringPool;
   }
 
   /**
@@ -55,14 +342,15 @@ public final class Settings {
    * @param key the specified key
    */
   public boolean containsKey(String key) {
-    return this.settings.containsKey(key);
+    return this.settings.get().containsKey(key);
   }
 
   /**
-   * Returns the set of keys.
+   * Returns the set of keys at the time of the call. Later changes are not
+   * reflected.
    */
   public Enumeration<String> getKeys() {
-    return this.settings.keys();
+    return this.settings.get().keys();
   }
 
   /**
@@ -72,7 +360,22 @@ public final class Settings {
    * @param value specified value
    */
   public void set(String key, String value) {
-    this.settings.put(key, value);
+    StringPool stringPool = this.stringPool;
+    if (stringPool != null) {
+      key = stringPool.intern(key);
+      value = stringPool.intern(value);
+    }
+    HashTrie<String, String> current;
+    HashTrie<String, String> next;
+    do {
+      current = this.settings.get();
+      next = current.put(key, value);
+    } while (!this.settings.compareAndSet(current, next));
+    this.parsed.remove(key);
+    updateSortedKey(key);
+    if (!Objects.equals(current.get(key), value)) {
+      fireChanged(key);
+    }
   }
 
   /**
@@ -85,7 +388,99 @@ public final class Settings {
    *     otherwise null if there was no mapping for key
    */
   public String remove(String key) {
-    return this.settings.remove(key);
+    this.parsed.remove(key);
+    HashTrie<String, String> current;
+    do {
+      current = this.settings.get();
+    } while (!this.settings.compareAndSet(current, current.remove(key)));
+    updateSortedKey(key);
+    String value = current.get(key);
+    if (value != null) {
+      fireChanged(key);
+    }
+    return value;
+  }
+
+  private void fireChanged(String key) {
+    for (Registration registration : this.listeners) {
+      if (registration.matches(key)) {
+        registration.changed(key);
+      }
+    }
+  }
+
+  /**
+   * Returns the keys in ascending order. The returned set is an
+   * unmodifiable view which reflects later changes.
+   *
+   * <p>The sorted index is created by the first call to this method or to
+   * the other ordered queries and is maintained from then on, so settings
+   * which are never queried in order do not pay for it.</p>
+   */
+  public NavigableSet<String> getSortedKeys() {
+    return Collections.unmodifiableNavigableSet(sortedKeys());
+  }
+
+  /**
+   * Returns the keys starting with the specified prefix in ascending order.
+   * The returned set is an unmodifiable view which reflects later changes.
+   *
+   * @param prefix specified prefix
+   */
+  public NavigableSet<String> getKeysWithPrefix(String prefix) {
+    String end = AdakiteUtils.prefixUpperBound(prefix);
+    NavigableSet<String> keys = (end == null)
+        ? sortedKeys().tailSet(prefix, true)
+        : sortedKeys().subSet(prefix, true, end, false);
+    return Collections.unmodifiableNavigableSet(keys);
+  }
+
+  /**
+   * Returns the keys within the specified range in ascending order.
+   * The returned set is an unmodifiable view which reflects later changes.
+   *
+   * @param fromKey lowest key, inclusive
+   * @param toKey highest key, exclusive
+   */
+  public NavigableSet<String> getKeysInRange(String fromKey, String toKey) {
+    return Collections.unmodifiableNavigableSet(sortedKeys().subSet(fromKey, true, toKey, false));
+  }
+
+  private ConcurrentSkipListSet<String> sortedKeys() {
+    ConcurrentSkipListSet<String> keys = this.sortedKeys;
+    if (keys == null) {
+      synchronized (this) {
+        keys = this.sortedKeys;
+        if (keys == null) {
+          keys = new ConcurrentSkipListSet<>();
+          /* Publish first so that concurrent changes update the index too. */
+          this.sortedKeys = keys;
+          Enumeration<String> enums = this.settings.get().keys();
+          while (enums.hasMoreElements()) {
+            updateSortedKey(enums.nextElement());
+          }
+        }
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Makes the sorted index match the presence of the specified key. The
+   * map is read under the index lock, so the last update always wins.
+   */
+  private void updateSortedKey(String key) {
+    ConcurrentSkipListSet<String> keys = this.sortedKeys;
+    if (keys == null) {
+      return;
+    }
+    synchronized (keys) {
+      if (this.settings.get().containsKey(key)) {
+        keys.add(key);
+      } else {
+        keys.remove(key);
+      }
+    }
   }
 
   /**
@@ -94,7 +489,7 @@ public final class Settings {
    * @param key specified key
    */
   public String getValue(String key) {
-    return this.settings.get(key);
+    return this.settings.get().get(key);
   }
 
   /**
@@ -106,4 +501,183 @@ public final class Settings {
     return (!AdakiteUtils.isNullOrEmpty(getValue(key), StringCompareOption.TRIM));
   }
 
+  /**
+   * Returns the value associated with the specified key as an int.
+   *
+   * @param key specified key
+   * @param defaultValue value to return if the key is not present or its
+   *     value is not a valid int
+   */
+  public int getInt(String key, int defaultValue) {
+    Integer value = getParsed(key, Integer.class, Settings::parseInt);
+    return (value == null) ? defaultValue : value;
+  }
+
+  /**
+   * Returns the value associated with the specified key as a long.
+   *
+   * @param key specified key
+   * @param defaultValue value to return if the key is not present or its
+   *     value is not a valid long
+   */
+  public long getLong(String key, long defaultValue) {
+    Long value = getParsed(key, Long.class, Settings::parseLong);
+    return (value == null) ? defaultValue : value;
+  }
+
+  /**
+   * Returns the value associated with the specified key as a double.
+   *
+   * @param key specified key
+   * @param defaultValue value to return if the key is not present or its
+   *     value is not a valid double
+   */
+  public double getDouble(String key, double defaultValue) {
+    Double value = getParsed(key, Double.class, Settings::parseDouble);
+    return (value == null) ? defaultValue : value;
+  }
+
+  /**
+   * Returns the value associated with the specified key as a boolean.
+   * Only "true" and "false" are accepted, ignoring case.
+   *
+   * @param key specified key
+   * @param defaultValue value to return if the key is not present or its
+   *     value is not a valid boolean
+   */
+  public boolean getBoolean(String key, boolean defaultValue) {
+    Boolean value = getParsed(key, Boolean.class, Settings::parseBoolean);
+    return (value == null) ? defaultValue : value;
+  }
+
+  /**
+   * Returns the value associated with the specified key as a duration.
+   * The value may be an ISO-8601 duration such as "PT1M30S", a number
+   * followed by one of the units "ms", "s", "m", "h" or "d", or a plain
+   * number of milliseconds.
+   *
+   * @param key specified key
+   * @param defaultValue value to return if the key is not present or its
+   *     value is not a valid duration
+   */
+  public Duration getDuration(String key, Duration defaultValue) {
+    Duration value = getParsed(key, Duration.class, Settings::parseDuration);
+    return (value == null) ? defaultValue : value;
+  }
+
+  /**
+   * Returns the value associated with the specified key as an unmodifiable
+   * list of comma-separated elements with surrounding whitespace removed.
+   *
+   * @param key specified key
+   * @return
+   *     the elements of the value,
+   *     otherwise an empty list if the key is not present or its value
+   *     is empty
+   */
+  public List<String> getList(String key) {
+    List<String> value = getParsed(key, List.class, Settings::parseList);
+    return (value == null) ? Collections.emptyList() : value;
+  }
+
+  /**
+   * Returns the cached parsed representation of the value associated with
+   * the specified key, parsing and caching it first if necessary.
+   *
+   * @param key specified key
+   * @param type type of the parsed representation
+   * @param parser function which returns the parsed representation of a
+   *     trimmed value or null if the value is invalid
+   * @return
+   *     the parsed representation,
+   *     otherwise null if the key is not present or its value is invalid
+   */
+  private <T> T getParsed(String key, Class<? super T> type, Function<String, T> parser) {
+    String value = this.settings.get().get(key);
+    if (value == null) {
+      return null;
+    }
+    Parsed cached = this.parsed.get(key);
+    /* Compare by reference so that a cache entry left over from a concurrent set is never used. */
+    if (cached == null || cached.source != value || cached.type != type) {
+      cached = new Parsed(value, type, parser.apply(value.trim()));
+      this.parsed.put(key, cached);
+    }
+    @SuppressWarnings("unchecked")
+    T result = (T) cached.value;
+    return result;
+  }
+
+  private static Integer parseInt(String str) {
+    try {
+      return Integer.valueOf(str);
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  private static Long parseLong(String str) {
+    try {
+      return Long.valueOf(str);
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  private static Double parseDouble(String str) {
+    try {
+      return Double.valueOf(str);
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  private static Boolean parseBoolean(String str) {
+    if (str.equalsIgnoreCase(Boolean.TRUE.toString())) {
+      return Boolean.TRUE;
+    } else if (str.equalsIgnoreCase(Boolean.FALSE.toString())) {
+      return Boolean.FALSE;
+    } else {
+      return null;
+    }
+  }
+
+  private static Duration parseDuration(String str) {
+    if (str.isEmpty()) {
+      return null;
+    }
+    String lower = str.toLowerCase(Locale.US);
+    try {
+      if (lower.startsWith("p") || lower.startsWith("-p")) {
+        return Duration.parse(str);
+      } else if (lower.endsWith("ms")) {
+        return Duration.ofMillis(Long.parseLong(lower.substring(0, lower.length() - 2).trim()));
+      } else if (lower.endsWith("s")) {
+        return Duration.ofSeconds(Long.parseLong(lower.substring(0, lower.length() - 1).trim()));
+      } else if (lower.endsWith("m")) {
+        return Duration.ofMinutes(Long.parseLong(lower.substring(0, lower.length() - 1).trim()));
+      } else if (lower.endsWith("h")) {
+        return Duration.ofHours(Long.parseLong(lower.substring(0, lower.length() - 1).trim()));
+      } else if (lower.endsWith("d")) {
+        return Duration.ofDays(Long.parseLong(lower.substring(0, lower.length() - 1).trim()));
+      } else {
+        return Duration.ofMillis(Long.parseLong(lower));
+      }
+    } catch (NumberFormatException | DateTimeParseException ex) {
+      return null;
+    }
+  }
+
+  private static List<String> parseList(String str) {
+    if (str.isEmpty()) {
+      return Collections.emptyList();
+    }
+    String[] tokens = str.split(",", -1);
+    List<String> list = new ArrayList<>(tokens.length);
+    for (String token : tokens) {
+      list.add(token.trim());
+    }
+    return Collections.unmodifiableList(list);
+  }
+
 }
@@ -0,0 +1,48 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.settings;
+
+import java.util.Set;
+
+/**
+ * Receiver of the changes made to a {@link Settings} object. Changes made
+ * in quick succession are delivered together in a single call.
+ *
+ * @see Settings#addListener(adakite.settings.SettingsListener, java.util.concurrent.Executor, java.lang.String, adakite.settings.Settings.ListenerOption...)
+ */
+public interface SettingsListener {
+
+  /**
+   * Called after the values of one or more keys have been set or removed.
+   *
+   * @param settings snapshot of the changed settings taken when the call
+   *     is delivered, which reflects at least the changes of the specified
+   *     keys
+   * @param keys unmodifiable set of the changed keys in the order they
+   *     were first changed since the previous call
+   */
+  void settingsChanged(Settings settings, Set<String> keys);
+
+}
@@ -195,6 +195,29 @@ public final class AdakiteUtils {
     return ret.toString();
   }
 
+  /**
+   * Returns the smallest string which is greater than every string starting
+   * with the specified prefix. This is the exclusive upper bound of a
+   * prefix range in a sorted collection.
+   *
+   * @param prefix specified prefix
+   * @return
+   *     the exclusive upper bound of the specified prefix,
+   *     otherwise null if the range has no upper bound
+   */
+  public static String prefixUpperBound(String prefix) {
+    int end = prefix.length();
+    while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+      end--;
+    }
+    if (end == 0) {
+      return null;
+    }
+    char[] chars = prefix.substring(0, end).toCharArray();
+    chars[end - 1]++;
+    return new String(chars);
+  }
+
   /**
    * Tests if the specified file is readable.
    *
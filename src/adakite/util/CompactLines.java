@@ -0,0 +1,382 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * List of lines which keeps the lines of a file in the UTF-8 encoded
+ * contents of the file and a table of line start offsets instead of one
+ * String per line. Lines are decoded only when they are retrieved.
+ * Changed and inserted lines are kept as strings.
+ *
+ * <p>The position of each line is stored in a gap buffer of references,
+ * each of which is either the number of an original line or the number of
+ * a changed line, so a line costs a few bytes in addition to its contents
+ * as long as it is not changed. Original lines keep their line terminator,
+ * see {@link #getOriginalLine(int)}.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+final class CompactLines extends AbstractList<String> implements RandomAccess {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private final byte[] contents;
+  /* Offsets of the original lines followed by the length of the contents. */
+  private final int[] starts;
+  /* Changed lines referenced by negative references. */
+  private final ArrayList<String> changes;
+  /* Line terminators of the changed lines, "" if a line had none. */
+  private final ArrayList<String> terminators;
+  /* Most frequent line terminator in the contents. */
+  private final String lineSeparator;
+  /* Gap buffer of references. */
+  private int[] refs;
+  private int gapStart;
+  private int gapEnd;
+
+  /**
+   * Splits the specified contents into lines. Lines are terminated by
+   * "\n", "\r\n" or "\r". A terminator at the end of the contents does not
+   * start another line. The most frequent terminator is used for inserted
+   * lines, or the system-dependent newline if there is none.
+   *
+   * @param contents UTF-8 encoded contents
+   * @throws CharacterCodingException if the contents are not valid UTF-8
+   */
+  public CompactLines(byte[] contents) throws CharacterCodingException {
+    validate(contents);
+    int count = 0;
+    int[] offsets = new int[DEFAULT_CAPACITY];
+    int lf = 0;
+    int crlf = 0;
+    int cr = 0;
+    int i = 0;
+    while (i < contents.length) {
+      if (count + 1 >= offsets.length) {
+        offsets = Arrays.copyOf(offsets, offsets.length + (offsets.length >> 1));
+      }
+      offsets[count++] = i;
+      while (i < contents.length && contents[i] != '\n' && contents[i] != '\r') {
+        i++;
+      }
+      if (i < contents.length) {
+        if (contents[i] == '\n') {
+          lf++;
+          i++;
+        } else if (i + 1 < contents.length && contents[i + 1] == '\n') {
+          crlf++;
+          i += 2;
+        } else {
+          cr++;
+          i++;
+        }
+      }
+    }
+    offsets[count] = contents.length;
+    this.contents = contents;
+    this.starts = Arrays.copyOf(offsets, count + 1);
+    this.changes = new ArrayList<>();
+    this.terminators = new ArrayList<>();
+    if (lf == 0 && crlf == 0 && cr == 0) {
+      this.lineSeparator = AdakiteUtils.newline();
+    } else if (lf >= crlf && lf >= cr) {
+      this.lineSeparator = "\n";
+    } else {
+      this.lineSeparator = (crlf >= cr) ? "\r\n" : "\r";
+    }
+    this.refs = new int[Math.max(DEFAULT_CAPACITY, count + (count >> 1))];
+    for (int line = 0; line < count; line++) {
+      this.refs[line] = line;
+    }
+    this.gapStart = count;
+    this.gapEnd = this.refs.length;
+  }
+
+  /**
+   * Creates a copy of the specified lines which shares the contents and the
+   * table of original lines.
+   *
+   * @param lines specified lines
+   */
+  public CompactLines(CompactLines lines) {
+    this.contents = lines.contents;
+    this.starts = lines.starts;
+    this.changes = new ArrayList<>(lines.changes);
+    this.terminators = new ArrayList<>(lines.terminators);
+    this.lineSeparator = lines.lineSeparator;
+    this.refs = lines.refs.clone();
+    this.gapStart = lines.gapStart;
+    this.gapEnd = lines.gapEnd;
+  }
+
+  @Override
+  public int size() {
+    return this.refs.length - (this.gapEnd - this.gapStart);
+  }
+
+  @Override
+  public String get(int index) {
+    int ref = ref(index);
+    if (ref < 0) {
+      return this.changes.get(-ref - 1);
+    }
+    int start = this.starts[ref];
+    return new String(this.contents, start, contentEnd(ref) - start, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public String set(int index, String element) {
+    int i = slot(index);
+    int ref = this.refs[i];
+    if (ref < 0) {
+      return this.changes.set(-ref - 1, element);
+    }
+    String previous = get(index);
+    /* Keep the terminator of the replaced line. */
+    this.refs[i] = addChange(element, getOriginalTerminator(ref));
+    return previous;
+  }
+
+  @Override
+  public void add(int index, String element) {
+    checkIndex(index, size() + 1);
+    moveGap(index);
+    if (this.gapStart == this.gapEnd) {
+      grow();
+    }
+    this.refs[this.gapStart++] = addChange(element, this.lineSeparator);
+    this.modCount++;
+  }
+
+  @Override
+  public String remove(int index) {
+    String previous = get(index);
+    moveGap(index);
+    releaseChange(this.refs[this.gapEnd++]);
+    this.modCount++;
+    return previous;
+  }
+
+  @Override
+  protected void removeRange(int fromIndex, int toIndex) {
+    if (fromIndex >= toIndex) {
+      return;
+    }
+    moveGap(fromIndex);
+    int end = this.gapEnd + (toIndex - fromIndex);
+    for (int i = this.gapEnd; i < end; i++) {
+      releaseChange(this.refs[i]);
+    }
+    this.gapEnd = end;
+    this.modCount++;
+  }
+
+  /**
+   * Returns the line terminator of the changed line at the specified
+   * position. A replaced line keeps the terminator of the original line
+   * and an inserted line gets {@link #getLineSeparator()}.
+   *
+   * @param index position of the line
+   * @return
+   *     the terminator of the changed line,
+   *     otherwise an empty string if the line replaced an original last
+   *     line without a terminator or the line is unchanged
+   */
+  public String getTerminator(int index) {
+    int ref = ref(index);
+    return (ref < 0) ? this.terminators.get(-ref - 1) : "";
+  }
+
+  /**
+   * Returns the most frequent line terminator of the contents.
+   */
+  public String getLineSeparator() {
+    return this.lineSeparator;
+  }
+
+  /**
+   * Returns the number of the original line at the specified position.
+   *
+   * @param index position of the line
+   * @return
+   *     the number of the original line if the line is unchanged,
+   *     otherwise -1
+   */
+  public int getOriginalLine(int index) {
+    int ref = ref(index);
+    return (ref < 0) ? -1 : ref;
+  }
+
+  /**
+   * Returns the encoded contents which the original lines refer to.
+   * The returned array must not be modified.
+   */
+  public byte[] getContents() {
+    return this.contents;
+  }
+
+  /**
+   * Returns the offset of the specified original line in the contents.
+   */
+  public int getStart(int line) {
+    return this.starts[line];
+  }
+
+  /**
+   * Returns the offset following the specified original line and its line
+   * terminator in the contents.
+   */
+  public int getEnd(int line) {
+    return this.starts[line + 1];
+  }
+
+  /**
+   * Tests whether the specified original line is followed by a line
+   * terminator in the contents.
+   */
+  public boolean isTerminated(int line) {
+    return contentEnd(line) < this.starts[line + 1];
+  }
+
+  /**
+   * Returns the offset following the specified original line without its
+   * line terminator.
+   */
+  private int contentEnd(int line) {
+    int end = this.starts[line + 1];
+    if (end > this.starts[line] && this.contents[end - 1] == '\n') {
+      end--;
+    }
+    if (end > this.starts[line] && this.contents[end - 1] == '\r') {
+      end--;
+    }
+    return end;
+  }
+
+  private int addChange(String element, String terminator) {
+    this.changes.add(element);
+    this.terminators.add(terminator);
+    return -this.changes.size();
+  }
+
+  private void releaseChange(int ref) {
+    if (ref < 0) {
+      this.changes.set(-ref - 1, null);
+      this.terminators.set(-ref - 1, null);
+    }
+  }
+
+  private String getOriginalTerminator(int line) {
+    int end = contentEnd(line);
+    switch (this.starts[line + 1] - end) {
+      case 0:
+        return "";
+      case 2:
+        return "\r\n";
+      default:
+        return (this.contents[end] == '\r') ? "\r" : "\n";
+    }
+  }
+
+  private int ref(int index) {
+    return this.refs[slot(index)];
+  }
+
+  private int slot(int index) {
+    checkIndex(index, size());
+    return (index < this.gapStart) ? index : index + (this.gapEnd - this.gapStart);
+  }
+
+  /**
+   * Moves the gap so that it starts at the specified index.
+   */
+  private void moveGap(int index) {
+    if (index < this.gapStart) {
+      int count = this.gapStart - index;
+      System.arraycopy(this.refs, index, this.refs, this.gapEnd - count, count);
+      this.gapEnd -= count;
+      this.gapStart = index;
+    } else if (index > this.gapStart) {
+      int count = index - this.gapStart;
+      System.arraycopy(this.refs, this.gapEnd, this.refs, this.gapStart, count);
+      this.gapStart += count;
+      this.gapEnd += count;
+    }
+  }
+
+  /**
+   * Enlarges the reference array by half of its size, keeping the gap in
+   * place.
+   */
+  private void grow() {
+    int length = this.refs.length;
+    int capacity = Math.max(DEFAULT_CAPACITY, length + (length >> 1));
+    int[] grown = new int[capacity];
+    int tail = length - this.gapEnd;
+    System.arraycopy(this.refs, 0, grown, 0, this.gapStart);
+    System.arraycopy(this.refs, this.gapEnd, grown, capacity - tail, tail);
+    this.refs = grown;
+    this.gapEnd = capacity - tail;
+  }
+
+  private static void checkIndex(int index, int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  /**
+   * Decodes the specified contents in chunks without keeping the result.
+   *
+   * @throws CharacterCodingException if the contents are not valid UTF-8
+   */
+  private static void validate(byte[] contents) throws CharacterCodingException {
+    CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    ByteBuffer in = ByteBuffer.wrap(contents);
+    CharBuffer out = CharBuffer.allocate(4096);
+    while (true) {
+      CoderResult result = decoder.decode(in, out, true);
+      if (result.isError()) {
+        result.throwException();
+      }
+      out.clear();
+      if (result.isUnderflow()) {
+        break;
+      }
+    }
+  }
+
+}
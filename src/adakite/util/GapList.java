@@ -0,0 +1,178 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * List backed by a gap buffer. Elements are stored in a single array with
+ * an unused gap at the position of the last insertion or removal.
+ * Inserting or removing at the gap only moves the gap boundary, so a
+ * series of edits close to each other costs amortized constant time per
+ * edit instead of shifting every following element. Moving the gap costs
+ * time proportional to the distance moved.
+ *
+ * <p>This class is not thread-safe.</p>
+ *
+ * @param <E> the type of elements in this list
+ */
+final class GapList<E> extends AbstractList<E> implements RandomAccess {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private Object[] elements;
+  private int gapStart;
+  private int gapEnd;
+
+  public GapList() {
+    this.elements = new Object[DEFAULT_CAPACITY];
+    this.gapStart = 0;
+    this.gapEnd = this.elements.length;
+  }
+
+  public GapList(Collection<? extends E> collection) {
+    Object[] contents = collection.toArray();
+    this.elements = Arrays.copyOf(contents, Math.max(DEFAULT_CAPACITY, contents.length + (contents.length >> 1)), Object[].class);
+    this.gapStart = contents.length;
+    this.gapEnd = this.elements.length;
+  }
+
+  @Override
+  public int size() {
+    return this.elements.length - (this.gapEnd - this.gapStart);
+  }
+
+  @Override
+  public E get(int index) {
+    checkIndex(index, size());
+    return element(index);
+  }
+
+  @Override
+  public E set(int index, E element) {
+    checkIndex(index, size());
+    int i = (index < this.gapStart) ? index : index + (this.gapEnd - this.gapStart);
+    E previous = elementAt(i);
+    this.elements[i] = element;
+    return previous;
+  }
+
+  @Override
+  public void add(int index, E element) {
+    checkIndex(index, size() + 1);
+    moveGap(index);
+    if (this.gapStart == this.gapEnd) {
+      grow();
+    }
+    this.elements[this.gapStart++] = element;
+    this.modCount++;
+  }
+
+  @Override
+  public E remove(int index) {
+    checkIndex(index, size());
+    moveGap(index);
+    E previous = elementAt(this.gapEnd);
+    this.elements[this.gapEnd++] = null;
+    this.modCount++;
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(this.elements, null);
+    this.gapStart = 0;
+    this.gapEnd = this.elements.length;
+    this.modCount++;
+  }
+
+  @Override
+  protected void removeRange(int fromIndex, int toIndex) {
+    if (fromIndex >= toIndex) {
+      return;
+    }
+    moveGap(fromIndex);
+    int end = this.gapEnd + (toIndex - fromIndex);
+    Arrays.fill(this.elements, this.gapEnd, end, null);
+    this.gapEnd = end;
+    this.modCount++;
+  }
+
+  /**
+   * Moves the gap so that it starts at the specified index. Only the slots
+   * which held moved elements and are now part of the gap are cleared, so
+   * the cost depends on the distance moved rather than the size of the gap.
+   */
+  private void moveGap(int index) {
+    if (index < this.gapStart) {
+      int count = this.gapStart - index;
+      int gapStart = this.gapStart;
+      System.arraycopy(this.elements, index, this.elements, this.gapEnd - count, count);
+      this.gapEnd -= count;
+      this.gapStart = index;
+      Arrays.fill(this.elements, index, Math.min(gapStart, this.gapEnd), null);
+    } else if (index > this.gapStart) {
+      int count = index - this.gapStart;
+      int gapEnd = this.gapEnd;
+      System.arraycopy(this.elements, this.gapEnd, this.elements, this.gapStart, count);
+      this.gapStart += count;
+      this.gapEnd += count;
+      Arrays.fill(this.elements, Math.max(gapEnd, this.gapStart), this.gapEnd, null);
+    }
+  }
+
+  /**
+   * Enlarges the array by half of its size, keeping the gap in place.
+   */
+  private void grow() {
+    int length = this.elements.length;
+    int capacity = Math.max(DEFAULT_CAPACITY, length + (length >> 1));
+    Object[] grown = new Object[capacity];
+    int tail = length - this.gapEnd;
+    System.arraycopy(this.elements, 0, grown, 0, this.gapStart);
+    System.arraycopy(this.elements, this.gapEnd, grown, capacity - tail, tail);
+    this.elements = grown;
+    this.gapEnd = capacity - tail;
+  }
+
+  @SuppressWarnings("unchecked")
+  private E elementAt(int i) {
+    return (E) this.elements[i];
+  }
+
+  private E element(int index) {
+    return elementAt((index < this.gapStart) ? index : index + (this.gapEnd - this.gapStart));
+  }
+
+  private static void checkIndex(int index, int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+}
@@ -24,29 +24,297 @@
 
 package adakite.util;
 
-import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * Class for storing an entire plain text file in memory as an ArrayList of
+ * Class for storing an entire plain text file in memory as a list of
  * String objects for each line.
+ *
+ * <p>Changes made through {@link #getLines()} are tracked so that
+ * {@link #dumpToFile(java.nio.file.Path, adakite.util.MemoryFile.WriteOption...)}
+ * can skip writing a file which already matches the stored lines.</p>
  */
 public final class MemoryFile  {
 
+  public enum ReadOption {
+
+    /**
+     * Keeps the encoded contents of the file and a table of line offsets
+     * instead of one String per line. Unchanged lines are decoded when they
+     * are retrieved and are written back with their original line
+     * terminators.
+     */
+    COMPACT
+    ;
+
+  }
+
+  public enum WriteOption {
+
+    /**
+     * Writes the file even if it already matches the stored lines.
+     */
+    FORCE,
+
+    /**
+     * Forces the written data to the storage device before the file
+     * is replaced.
+     */
+    SYNC
+    ;
+
+  }
+
+  /**
+   * Encoder which writes strings as UTF-8 to a channel through a reusable
+   * character buffer and a pair of direct byte buffers. Full byte buffers
+   * are written together with a single gathering write when the channel
+   * supports it.
+   */
+  private static final class LineEncoder {
+
+    private static final int CHAR_BUFFER_SIZE = 4096;
+    private static final int BYTE_BUFFER_SIZE = 16384;
+
+    private final CharsetEncoder encoder;
+    private final CharBuffer in;
+    private final ByteBuffer[] out;
+    private int current;
+    private WritableByteChannel channel;
+
+    public LineEncoder() {
+      this.encoder = StandardCharsets.UTF_8.newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.in = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+      this.out = new ByteBuffer[] {
+          ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE),
+          ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE)
+      };
+    }
+
+    public void begin(WritableByteChannel channel) {
+      this.channel = channel;
+      this.encoder.reset();
+      this.in.clear();
+      for (ByteBuffer buf : this.out) {
+        buf.clear();
+      }
+      this.current = 0;
+    }
+
+    public void write(String str) throws IOException {
+      int pos = 0;
+      while (pos < str.length()) {
+        int n = Math.min(this.in.remaining(), str.length() - pos);
+        str.getChars(pos, pos + n, this.in.array(), this.in.arrayOffset() + this.in.position());
+        this.in.position(this.in.position() + n);
+        pos += n;
+        if (!this.in.hasRemaining()) {
+          encode(false);
+        }
+      }
+    }
+
+    /**
+     * Writes the specified bytes, which must be UTF-8 encoded, after the
+     * characters written so far.
+     */
+    public void writeRaw(byte[] bytes, int offset, int length) throws IOException {
+      encode(false);
+      while (length > 0) {
+        ByteBuffer buf = this.out[this.current];
+        if (!buf.hasRemaining()) {
+          nextBuffer();
+          continue;
+        }
+        int n = Math.min(buf.remaining(), length);
+        buf.put(bytes, offset, n);
+        offset += n;
+        length -= n;
+      }
+    }
+
+    public void finish() throws IOException {
+      encode(true);
+      while (this.encoder.flush(this.out[this.current]).isOverflow()) {
+        nextBuffer();
+      }
+      drain();
+    }
+
+    public void end() {
+      this.channel = null;
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+      this.in.flip();
+      while (this.encoder.encode(this.in, this.out[this.current], endOfInput).isOverflow()) {
+        nextBuffer();
+      }
+      /* Keep a trailing high surrogate for the next chunk. */
+      this.in.compact();
+    }
+
+    private void nextBuffer() throws IOException {
+      if (++this.current == this.out.length) {
+        drain();
+      }
+    }
+
+    /**
+     * Writes all filled byte buffers to the channel and clears them.
+     */
+    private void drain() throws IOException {
+      int count = Math.min(this.current + 1, this.out.length);
+      for (int i = 0; i < count; i++) {
+        this.out[i].flip();
+      }
+      if (this.channel instanceof GatheringByteChannel) {
+        GatheringByteChannel gathering = (GatheringByteChannel) this.channel;
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+          remaining += this.out[i].remaining();
+        }
+        while (remaining > 0) {
+          remaining -= gathering.write(this.out, 0, count);
+        }
+      } else {
+        for (int i = 0; i < count; i++) {
+          while (this.out[i].hasRemaining()) {
+            this.channel.write(this.out[i]);
+          }
+        }
+      }
+      for (ByteBuffer buf : this.out) {
+        buf.clear();
+      }
+      this.current = 0;
+    }
+
+  }
+
+  /* Same limit as the usual operating system limit on nested links. */
+  private static final int MAX_LINK_DEPTH = 40;
+
+  private static final ThreadLocal<LineEncoder> ENCODER = ThreadLocal.withInitial(LineEncoder::new);
+
+  /**
+   * List of lines which marks the memory file as dirty when modified.
+   * Lines are stored in a gap buffer, so consecutive insertions and
+   * removals around the same position do not shift the rest of the file.
+   */
+  private final class Lines extends AbstractList<String> implements RandomAccess {
+
+    private List<String> list;
+
+    public Lines() {
+      this.list = new GapList<>();
+    }
+
+    public void reset(List<String> list) {
+      this.list = (list instanceof CompactLines) ? list : new GapList<>(list);
+    }
+
+    /**
+     * Returns a copy of the stored lines which shares the unchanged lines
+     * of a compact list.
+     */
+    public List<String> copy() {
+      return (this.list instanceof CompactLines) ? new CompactLines((CompactLines) this.list) : this.list;
+    }
+
+    @Override
+    public String get(int index) {
+      return this.list.get(index);
+    }
+
+    @Override
+    public int size() {
+      return this.list.size();
+    }
+
+    @Override
+    public String set(int index, String element) {
+      String previous = this.list.set(index, element);
+      if (!Objects.equals(previous, element)) {
+        MemoryFile.this.changed();
+      }
+      return previous;
+    }
+
+    @Override
+    public void add(int index, String element) {
+      this.list.add(index, element);
+      this.modCount++;
+      MemoryFile.this.changed();
+    }
+
+    @Override
+    public String remove(int index) {
+      String previous = this.list.remove(index);
+      this.modCount++;
+      MemoryFile.this.changed();
+      return previous;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+      if (fromIndex < toIndex) {
+        this.list.subList(fromIndex, toIndex).clear();
+        this.modCount++;
+        MemoryFile.this.changed();
+      }
+    }
+
+  }
+
   private Path path;
-  private List<String> lines;
+  private final Lines lines;
+  private boolean dirty;
+  /* Incremented on every change to the lines. */
+  private long version;
+  private volatile WriteBehindFlusher writeBehind;
+  /* State of the file the lines were last read from or written to. */
+  private Path syncedPath;
+  private long syncedSize;
+  private FileTime syncedTime;
 
   public MemoryFile() {
     this.path = null;
-    this.lines = new ArrayList<>();
+    this.lines = new Lines();
+    this.dirty = false;
+    this.version = 0;
+    this.writeBehind = null;
+    this.syncedPath = null;
+    this.syncedSize = -1;
+    this.syncedTime = null;
   }
 
   /**
@@ -64,40 +332,340 @@ public final class MemoryFile  {
     return this.lines;
   }
 
+  /**
+   * Tests whether the stored lines have been modified since they were
+   * last read or written.
+   */
+  public synchronized boolean isDirty() {
+    return this.dirty;
+  }
+
   /**
    * Clears the current memory file and reads the specified file into memory.
    *
    * @param path specified file to read/create
+   * @param options read options
    * @see #clear()
    * @throws IOException if an I/O error occurs
    */
-  public void read(Path path) throws IOException {
+  public void read(Path path, ReadOption... options) throws IOException {
+    List<ReadOption> readOptions = (options == null) ? new ArrayList<>() : Arrays.asList(options);
+    if (readOptions.contains(ReadOption.COMPACT)) {
+      read(path, Files.readAllBytes(path), options);
+      return;
+    }
     clear();
     this.path = path;
-    this.lines = Files.readAllLines(this.path, StandardCharsets.UTF_8);
+    this.lines.reset(Files.readAllLines(this.path, StandardCharsets.UTF_8));
+    setSynced(path);
   }
 
   /**
-   * Dumps the currently stored lines to the specified file.
+   * Clears the current memory file and loads the lines of the specified
+   * file from its contents which have already been read by the caller.
+   * Line terminators are handled the same way as by
+   * {@link #read(java.nio.file.Path, adakite.util.MemoryFile.ReadOption...)}.
+   *
+   * @param path specified file the contents were read from
+   * @param contents UTF-8 encoded contents of the specified file, which
+   *     must not be modified afterwards if {@link ReadOption#COMPACT} is
+   *     specified
+   * @param options read options
+   * @throws IOException if the contents are not valid UTF-8 or an I/O
+   *     error occurs
+   */
+  public void read(Path path, byte[] contents, ReadOption... options) throws IOException {
+    List<ReadOption> readOptions = (options == null) ? new ArrayList<>() : Arrays.asList(options);
+    clear();
+    this.path = path;
+    if (readOptions.contains(ReadOption.COMPACT)) {
+      this.lines.reset(new CompactLines(contents));
+      setSynced(path);
+      return;
+    }
+    CharBuffer chars = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(contents));
+    List<String> list = new ArrayList<>();
+    int start = 0;
+    int i = 0;
+    while (i < chars.length()) {
+      char ch = chars.charAt(i);
+      if (ch == '\n' || ch == '\r') {
+        list.add(chars.subSequence(start, i).toString());
+        i++;
+        if (ch == '\r' && i < chars.length() && chars.charAt(i) == '\n') {
+          i++;
+        }
+        start = i;
+      } else {
+        i++;
+      }
+    }
+    if (start < chars.length()) {
+      list.add(chars.subSequence(start, chars.length()).toString());
+    }
+    this.lines.reset(list);
+    setSynced(path);
+  }
+
+  /**
+   * Dumps the currently stored lines to the specified file. The lines are
+   * written to a temporary file in the same directory which then replaces
+   * the specified file, so that the specified file is never left partially
+   * written. Unless {@link WriteOption#FORCE} is specified, nothing is
+   * written if the specified file is the one the lines were last read from
+   * or written to, the lines have not been modified since and the file has
+   * not been changed by someone else.
+   *
+   * <p>If the specified file is a symbolic link, the file it points to is
+   * replaced and the link is kept. The permissions, owner and group of an
+   * existing file are carried over to the new file where the file system
+   * and the privileges of the process allow it.</p>
+   *
+   * <p>If a write-behind flusher is set, the lines are handed to it
+   * instead and this method returns without waiting for the file to be
+   * written.</p>
    *
    * @param path the specified file to dump lines
+   * @param options write options
    * @throws FileNotFoundException
    * @throws IOException if an I/O error occurs
    */
-  public void dumpToFile(Path path) throws FileNotFoundException, IOException {
-    try (
-        FileOutputStream fos = new FileOutputStream(path.toString());
-        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))
-    ) {
-      for (String line : this.lines) {
-        bw.write(line + AdakiteUtils.newline());
+  public synchronized void dumpToFile(Path path, WriteOption... options) throws FileNotFoundException, IOException {
+    WriteBehindFlusher flusher = this.writeBehind;
+    if (flusher != null) {
+      flusher.submit(this, path, options);
+      return;
+    }
+
+    List<WriteOption> writeOptions = (options == null) ? new ArrayList<>() : Arrays.asList(options);
+    if (!writeOptions.contains(WriteOption.FORCE) && isSynced(path)) {
+      /* File already matches the stored lines. */
+      return;
+    }
+
+    Path target = resolveLinks(path.toAbsolutePath());
+    Path tmp = createTempFile(target);
+    try {
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        dumpTo(channel);
+        if (writeOptions.contains(WriteOption.SYNC)) {
+          channel.force(true);
+        }
+      }
+      try {
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+
+    setSynced(path);
+  }
+
+  /**
+   * Writes the currently stored lines to the specified channel, each
+   * followed by a system-dependent newline. The lines are encoded as UTF-8
+   * directly into reusable buffers, so no intermediate strings are created.
+   * If the file was read with {@link ReadOption#COMPACT}, unchanged lines
+   * are copied from the original contents with their original line
+   * terminators instead, replaced lines keep the terminator of the line
+   * they replaced and inserted lines get the most frequent terminator of
+   * the original contents. The channel is not closed and the memory file is
+   * not marked as synced.
+   *
+   * @param channel specified channel
+   * @throws IOException if an I/O error occurs
+   */
+  public synchronized void dumpTo(WritableByteChannel channel) throws IOException {
+    LineEncoder encoder = MemoryFile.ENCODER.get();
+    encoder.begin(channel);
+    try {
+      if (this.lines.list instanceof CompactLines) {
+        CompactLines compactLines = (CompactLines) this.lines.list;
+        for (int i = 0; i < compactLines.size(); i++) {
+          int line = compactLines.getOriginalLine(i);
+          boolean terminated;
+          if (line < 0) {
+            String terminator = compactLines.getTerminator(i);
+            encoder.write(String.valueOf(compactLines.get(i)));
+            encoder.write(terminator);
+            terminated = !terminator.isEmpty();
+          } else {
+            int start = compactLines.getStart(line);
+            encoder.writeRaw(compactLines.getContents(), start, compactLines.getEnd(line) - start);
+            terminated = compactLines.isTerminated(line);
+          }
+          if (!terminated && i < compactLines.size() - 1) {
+            /* Original last line is no longer the last line. */
+            encoder.write(compactLines.getLineSeparator());
+          }
+        }
+      } else {
+        for (String line : this.lines) {
+          encoder.write(String.valueOf(line));
+          encoder.write(AdakiteUtils.newline());
+        }
       }
+      encoder.finish();
+    } finally {
+      encoder.end();
+    }
+  }
+
+  /**
+   * Sets the flusher which {@link #dumpToFile(java.nio.file.Path, adakite.util.MemoryFile.WriteOption...)}
+   * hands the stored lines to instead of writing them itself.
+   *
+   * @param flusher specified flusher or {@code null} to write synchronously
+   */
+  public void setWriteBehind(WriteBehindFlusher flusher) {
+    this.writeBehind = flusher;
+  }
+
+  /**
+   * Returns the flusher set by {@link #setWriteBehind(adakite.util.WriteBehindFlusher)},
+   * otherwise {@code null}.
+   */
+  public WriteBehindFlusher getWriteBehind() {
+    return this.writeBehind;
+  }
+
+  /**
+   * Returns a copy of this memory file including its synced state, so that
+   * the copy can be written while this memory file keeps changing.
+   */
+  synchronized MemoryFile snapshot() {
+    MemoryFile snapshot = new MemoryFile();
+    snapshot.path = this.path;
+    snapshot.lines.reset(this.lines.copy());
+    snapshot.dirty = this.dirty;
+    snapshot.version = this.version;
+    snapshot.syncedPath = this.syncedPath;
+    snapshot.syncedSize = this.syncedSize;
+    snapshot.syncedTime = this.syncedTime;
+    return snapshot;
+  }
+
+  /**
+   * Returns the number of changes made to the lines, which identifies the
+   * state of the lines captured by {@link #snapshot()}.
+   */
+  synchronized long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Records the specified file as matching the stored lines if the lines
+   * have not changed since the specified version was written to it.
+   *
+   * @param path specified file
+   * @param version version of the lines which were written
+   * @throws IOException if an I/O error occurs
+   */
+  synchronized void markSynced(Path path, long version) throws IOException {
+    if (this.version == version) {
+      setSynced(path);
     }
   }
 
+  private synchronized void changed() {
+    this.version++;
+    this.dirty = true;
+  }
+
   private void clear() {
     this.path = null;
-    this.lines.clear();
+    this.lines.reset(new ArrayList<>());
+    this.dirty = false;
+    this.version++;
+    this.syncedPath = null;
+    this.syncedSize = -1;
+    this.syncedTime = null;
+  }
+
+  /**
+   * Follows symbolic links until a path which is not a link is reached,
+   * so that a link is written through instead of being replaced. The
+   * final target does not need to exist.
+   */
+  private static Path resolveLinks(Path path) throws IOException {
+    Path target = path;
+    for (int i = 0; i < MemoryFile.MAX_LINK_DEPTH && Files.isSymbolicLink(target); i++) {
+      target = target.resolveSibling(Files.readSymbolicLink(target));
+    }
+    return target;
+  }
+
+  /**
+   * Creates an empty temporary file next to the specified target. The
+   * temporary file is created with the default permissions of a new file
+   * and then given the permissions, owner and group of the target if it
+   * exists, so that replacing the target does not change them.
+   */
+  private static Path createTempFile(Path target) throws IOException {
+    Path tmp;
+    while (true) {
+      tmp = target.resolveSibling(target.getFileName().toString() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+      try {
+        Files.createFile(tmp);
+        break;
+      } catch (FileAlreadyExistsException ex) {
+        /* Try another name. */
+      }
+    }
+
+    PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+    if (view == null || !Files.exists(target)) {
+      return tmp;
+    }
+    try {
+      PosixFileAttributes attributes = view.readAttributes();
+      PosixFileAttributeView tmpView = Files.getFileAttributeView(tmp, PosixFileAttributeView.class);
+      tmpView.setPermissions(attributes.permissions());
+      try {
+        if (!attributes.owner().equals(Files.getOwner(tmp))) {
+          tmpView.setOwner(attributes.owner());
+        }
+        if (!attributes.group().equals(tmpView.readAttributes().group())) {
+          tmpView.setGroup(attributes.group());
+        }
+      } catch (IOException ex) {
+        /* Only privileged users may change the owner. Keep the permissions. */
+      }
+    } catch (IOException | RuntimeException ex) {
+      Files.deleteIfExists(tmp);
+      throw ex;
+    }
+    return tmp;
+  }
+
+  /**
+   * Records the current state of the specified file as matching the
+   * stored lines.
+   */
+  private void setSynced(Path path) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    this.syncedPath = path.toAbsolutePath();
+    this.syncedSize = attributes.size();
+    this.syncedTime = attributes.lastModifiedTime();
+    this.dirty = false;
+  }
+
+  /**
+   * Tests whether the specified file still matches the stored lines.
+   */
+  private boolean isSynced(Path path) throws IOException {
+    if (this.dirty
+        || this.syncedPath == null
+        || !this.syncedPath.equals(path.toAbsolutePath())
+        || !AdakiteUtils.fileExists(path)) {
+      return false;
+    }
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    return (attributes.size() == this.syncedSize
+        && attributes.lastModifiedTime().equals(this.syncedTime));
   }
 
 }
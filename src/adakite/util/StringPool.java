@@ -0,0 +1,178 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class for deduplicating equal strings across many objects. The pool
+ * has a fixed number of slots and each string is mapped to a single slot
+ * by its hash code. A string replaces the string in its slot on a miss,
+ * so the pool never grows beyond its capacity and unused strings can still
+ * be garbage collected once they are evicted.
+ *
+ * <p>The pool is safe for use by multiple threads. Concurrent misses on the
+ * same slot may evict each other, which only affects the hit rate.</p>
+ */
+public final class StringPool {
+
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  private final AtomicReferenceArray<String> table;
+  private final int mask;
+  private final LongAdder hits;
+  private final LongAdder misses;
+
+  public StringPool(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.table = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+  }
+
+  public StringPool() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Returns the number of slots in this pool.
+   */
+  public int getCapacity() {
+    return this.table.length();
+  }
+
+  /**
+   * Returns the number of lookups which returned a pooled string.
+   */
+  public long getHitCount() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Returns the number of lookups which did not find an equal pooled string.
+   */
+  public long getMissCount() {
+    return this.misses.sum();
+  }
+
+  /**
+   * Resets the hit and miss counters.
+   */
+  public void resetStatistics() {
+    this.hits.reset();
+    this.misses.reset();
+  }
+
+  /**
+   * Removes all strings from this pool.
+   */
+  public void clear() {
+    for (int i = 0; i < this.table.length(); i++) {
+      this.table.set(i, null);
+    }
+  }
+
+  /**
+   * Returns a pooled string equal to the specified string. If no equal
+   * string is pooled, the specified string is pooled and returned.
+   *
+   * @param str specified string
+   * @return
+   *     a pooled string equal to the specified string,
+   *     otherwise null if the specified string is null
+   */
+  public String intern(String str) {
+    if (str == null) {
+      return null;
+    }
+    int slot = slot(str.hashCode());
+    String pooled = this.table.get(slot);
+    if (pooled != null && pooled.equals(str)) {
+      this.hits.increment();
+      return pooled;
+    }
+    this.misses.increment();
+    this.table.set(slot, str);
+    return str;
+  }
+
+  /**
+   * Returns a pooled string equal to the specified subsequence. Unlike
+   * interning the result of {@link CharSequence#subSequence(int, int)},
+   * no string is created if an equal string is already pooled.
+   *
+   * @param seq specified character sequence
+   * @param start start index, inclusive
+   * @param end end index, exclusive
+   * @return
+   *     a pooled string equal to the specified subsequence
+   * @throws IndexOutOfBoundsException if the range is out of bounds
+   */
+  public String intern(CharSequence seq, int start, int end) {
+    if (start < 0 || end > seq.length() || start > end) {
+      throw new IndexOutOfBoundsException("start=" + start + ", end=" + end + ", length=" + seq.length());
+    }
+    /* Same hash as String.hashCode() of the subsequence. */
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + seq.charAt(i);
+    }
+    int slot = slot(hash);
+    String pooled = this.table.get(slot);
+    if (pooled != null && regionEquals(pooled, seq, start, end)) {
+      this.hits.increment();
+      return pooled;
+    }
+    this.misses.increment();
+    String str = seq.subSequence(start, end).toString();
+    this.table.set(slot, str);
+    return str;
+  }
+
+  private int slot(int hash) {
+    return (hash ^ (hash >>> 16)) & this.mask;
+  }
+
+  private static boolean regionEquals(String str, CharSequence seq, int start, int end) {
+    if (str.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < str.length(); i++) {
+      if (str.charAt(i) != seq.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
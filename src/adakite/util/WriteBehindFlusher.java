@@ -0,0 +1,256 @@
+////////////////////////////////////////////////////////////////////////////////
+//
+//  Copyright 2017 Adakite
+//
+//  Permission is hereby granted, free of charge, to any person obtaining a
+//  copy of this software and associated documentation files (the "Software"),
+//  to deal in the Software without restriction, including without limitation
+//  the rights to use, copy, modify, merge, publish, distribute, sublicense,
+//  and/or sell copies of the Software, and to permit persons to whom the
+//  Software is furnished to do so, subject to the following conditions:
+//
+//  The above copyright notice and this permission notice shall be included in
+//  all copies or substantial portions of the Software.
+//
+//  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+//  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+//  DEALINGS IN THE SOFTWARE.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package adakite.util;
+
+import adakite.debugging.Debugging;
+import adakite.util.MemoryFile.WriteOption;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class for writing memory files on a background thread. A submitted
+ * memory file is copied and written after a delay, so that the caller
+ * does not wait for the file system. Memory files submitted again for
+ * the same path before the delay has passed are coalesced into a single
+ * write of the most recent copy. {@link #flush()} and {@link #close()}
+ * wait until all pending writes have completed.
+ *
+ * @see MemoryFile#setWriteBehind(adakite.util.WriteBehindFlusher)
+ */
+public final class WriteBehindFlusher implements Closeable {
+
+  public static final Duration DEFAULT_DELAY = Duration.ofMillis(500);
+
+  private static final class Pending {
+
+    private final MemoryFile source;
+    private final MemoryFile snapshot;
+    private final Path path;
+    private final WriteOption[] options;
+
+    private Pending(MemoryFile source, MemoryFile snapshot, Path path, WriteOption[] options) {
+      this.source = source;
+      this.snapshot = snapshot;
+      this.path = path;
+      this.options = options;
+    }
+
+  }
+
+  private final long delay;
+  private final ScheduledThreadPoolExecutor executor;
+  private final ConcurrentHashMap<Path, Pending> pending;
+  /* First error which has not been reported by flush() yet. */
+  private final AtomicReference<IOException> error;
+  /* Guards closed and the scheduling of writes. */
+  private final Object lock;
+  private boolean closed;
+
+  public WriteBehindFlusher() {
+    this(WriteBehindFlusher.DEFAULT_DELAY);
+  }
+
+  /**
+   * Creates a flusher which writes submitted memory files after the
+   * specified delay.
+   *
+   * @param delay time to wait for further changes before writing
+   */
+  public WriteBehindFlusher(Duration delay) {
+    if (delay == null) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL.toString("delay"));
+    } else if (delay.isNegative()) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NEGATIVE.toString("delay"));
+    }
+    this.delay = delay.toNanos();
+    this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "WriteBehindFlusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    this.pending = new ConcurrentHashMap<>();
+    this.error = new AtomicReference<>();
+    this.lock = new Object();
+    this.closed = false;
+  }
+
+  /**
+   * Schedules the current lines of the specified memory file to be written
+   * to the specified file. The lines are copied before this method returns,
+   * so the memory file can be changed while the copy is pending. Once the
+   * copy has been written, the memory file is marked as synced unless it
+   * has been changed in the meantime.
+   *
+   * @param file specified memory file
+   * @param path the specified file to dump lines
+   * @param options write options
+   * @throws IllegalStateException if this flusher has been closed
+   * @see MemoryFile#dumpToFile(java.nio.file.Path, adakite.util.MemoryFile.WriteOption...)
+   */
+  public void submit(MemoryFile file, Path path, WriteOption... options) {
+    if (file == null) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL_OR_EMPTY.toString("file"));
+    } else if (path == null) {
+      throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL_OR_EMPTY.toString("path"));
+    }
+
+    Path key = path.toAbsolutePath().normalize();
+    WriteOption[] writeOptions = (options == null) ? new WriteOption[0] : options.clone();
+    Pending entry = new Pending(file, file.snapshot(), path, writeOptions);
+    synchronized (this.lock) {
+      if (this.closed) {
+        throw new IllegalStateException("write-behind flusher is closed");
+      }
+      Pending previous = this.pending.put(key, entry);
+      if (previous == null) {
+        /* The write scheduled for an earlier submission picks up this one. */
+        this.executor.schedule(() -> write(key), this.delay, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * Tests whether there are submitted memory files which have not been
+   * written yet.
+   */
+  public boolean isPending() {
+    return !this.pending.isEmpty();
+  }
+
+  /**
+   * Writes all pending memory files and waits until they have been
+   * written.
+   *
+   * @throws IOException if an earlier write or one of the pending writes
+   *     failed
+   */
+  public void flush() throws IOException {
+    Future<?> future = null;
+    synchronized (this.lock) {
+      if (!this.closed) {
+        future = this.executor.submit(this::writeAll);
+      }
+    }
+    if (future != null) {
+      try {
+        future.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while flushing");
+      } catch (ExecutionException ex) {
+        throw new IOException(ex.getCause());
+      }
+    }
+    throwError();
+  }
+
+  /**
+   * Writes all pending memory files and stops the background thread.
+   * Further submissions are rejected.
+   *
+   * @throws IOException if an earlier write or one of the pending writes
+   *     failed
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this.lock) {
+      if (this.closed) {
+        throwError();
+        return;
+      }
+      /* No submission can be added after this point. */
+      this.closed = true;
+    }
+    /* Delayed writes are dropped on shutdown and drained below instead. */
+    this.executor.shutdown();
+    boolean interrupted = false;
+    try {
+      this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException ex) {
+      interrupted = true;
+    }
+    writeAll();
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while closing");
+    }
+    throwError();
+  }
+
+  private void writeAll() {
+    for (Path key : new ArrayList<>(this.pending.keySet())) {
+      write(key);
+    }
+  }
+
+  private void write(Path key) {
+    Pending entry = this.pending.remove(key);
+    if (entry == null) {
+      /* Already written by a flush. */
+      return;
+    }
+    try {
+      entry.snapshot.dumpToFile(entry.path, entry.options);
+      entry.source.markSynced(entry.path, entry.snapshot.getVersion());
+    } catch (IOException ex) {
+      addError(ex);
+    } catch (RuntimeException ex) {
+      addError(new IOException(ex));
+    }
+  }
+
+  private void throwError() throws IOException {
+    IOException ex;
+    synchronized (this.error) {
+      ex = this.error.getAndSet(null);
+    }
+    if (ex != null) {
+      throw ex;
+    }
+  }
+
+  private void addError(IOException ex) {
+    synchronized (this.error) {
+      IOException first = this.error.get();
+      if (first == null) {
+        this.error.set(ex);
+      } else {
+        first.addSuppressed(ex);
+      }
+    }
+  }
+
+}